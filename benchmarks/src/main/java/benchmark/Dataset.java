@@ -0,0 +1,51 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+@State(Scope.Benchmark)
+public class Dataset {
+    static final int queryCount = 1 << 12;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"UNIFORM", "GAUSSIAN", "DUPLICATE", "LINE"})
+    public Distribution distribution;
+
+    @Param({"8"})
+    public int leafCapacity;
+
+    double[] latitudes;
+    double[] longitudes;
+    Integer[] data;
+    double[] queryLatitudes;
+    double[] queryLongitudes;
+
+    @Setup
+    public void generate() {
+        latitudes = new double[size];
+        longitudes = new double[size];
+        data = new Integer[size];
+        Random random = new Random(size);
+        distribution.fill(random, latitudes, longitudes);
+        for (int i = 0; i < size; i++)
+            data[i] = i;
+        // Queries are centred on stored points so that every distribution is probed where its data is.
+        queryLatitudes = new double[queryCount];
+        queryLongitudes = new double[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            int point = random.nextInt(size);
+            queryLatitudes[i] = latitudes[point];
+            queryLongitudes[i] = longitudes[point];
+        }
+    }
+
+    int mergeThreshold() {
+        return leafCapacity / 2;
+    }
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.util.Random;
+
+public enum Distribution {
+    UNIFORM {
+        @Override
+        void fill(Random random, double[] latitudes, double[] longitudes) {
+            for (int i = 0; i < latitudes.length; i++) {
+                latitudes[i] = random.nextDouble() * extent;
+                longitudes[i] = random.nextDouble() * extent;
+            }
+        }
+    },
+    GAUSSIAN {
+        @Override
+        void fill(Random random, double[] latitudes, double[] longitudes) {
+            double[] centreLatitudes = new double[clusters];
+            double[] centreLongitudes = new double[clusters];
+            for (int i = 0; i < clusters; i++) {
+                centreLatitudes[i] = extent / 10 + random.nextDouble() * extent * 0.8;
+                centreLongitudes[i] = extent / 10 + random.nextDouble() * extent * 0.8;
+            }
+            for (int i = 0; i < latitudes.length; i++) {
+                int cluster = random.nextInt(clusters);
+                latitudes[i] = clamp(centreLatitudes[cluster] + random.nextGaussian() * extent / 50);
+                longitudes[i] = clamp(centreLongitudes[cluster] + random.nextGaussian() * extent / 50);
+            }
+        }
+    },
+    DUPLICATE {
+        @Override
+        void fill(Random random, double[] latitudes, double[] longitudes) {
+            double[] distinctLatitudes = new double[clusters];
+            double[] distinctLongitudes = new double[clusters];
+            UNIFORM.fill(random, distinctLatitudes, distinctLongitudes);
+            for (int i = 0; i < latitudes.length; i++) {
+                int point = random.nextInt(clusters);
+                latitudes[i] = distinctLatitudes[point];
+                longitudes[i] = distinctLongitudes[point];
+            }
+        }
+    },
+    LINE {
+        @Override
+        void fill(Random random, double[] latitudes, double[] longitudes) {
+            for (int i = 0; i < latitudes.length; i++) {
+                double position = random.nextDouble() * extent;
+                latitudes[i] = position;
+                longitudes[i] = position;
+            }
+        }
+    };
+
+    private static final double extent = 100;
+    private static final int clusters = 16;
+
+    abstract void fill(Random random, double[] latitudes, double[] longitudes);
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(extent, value));
+    }
+}
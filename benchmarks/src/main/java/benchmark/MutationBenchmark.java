@@ -0,0 +1,101 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quad.QuadNode;
+import quad.QuadTree;
+import quad.SpatialPoints;
+
+import java.util.concurrent.TimeUnit;
+
+// The *All benchmarks build or empty a whole index per invocation, so their scores are for the
+// full dataset; the others run one operation against a loaded index that stays the same size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MutationBenchmark {
+    private SpatialPoints<Integer> spatialPoints;
+    private int step;
+
+    @Setup
+    public void load(Dataset dataset) {
+        spatialPoints = load(dataset, true);
+    }
+
+    private static SpatialPoints<Integer> load(Dataset dataset, boolean bulk) {
+        if (bulk)
+            return SpatialPoints.bulkLoad(dataset.latitudes, dataset.longitudes, dataset.data,
+                    dataset.leafCapacity, QuadTree.defaultMinCellSize, dataset.mergeThreshold());
+        SpatialPoints<Integer> spatialPoints = new SpatialPoints<>(dataset.leafCapacity, QuadTree.defaultMinCellSize, dataset.mergeThreshold());
+        for (int i = 0; i < dataset.size; i++)
+            spatialPoints.insert(dataset.latitudes[i], dataset.longitudes[i], dataset.data[i]);
+        return spatialPoints;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SpatialPoints<Integer> insertAll(Dataset dataset) {
+        return load(dataset, false);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SpatialPoints<Integer> bulkLoadAll(Dataset dataset) {
+        return load(dataset, true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int removeAll(Dataset dataset, FullIndex index) {
+        int removed = 0;
+        for (int i = 0; i < dataset.size; i++) {
+            if (index.spatialPoints.remove(new QuadNode<>(dataset.latitudes[i], dataset.longitudes[i], dataset.data[i])))
+                removed++;
+        }
+        return removed;
+    }
+
+    private int nextStep() {
+        return step++ & Integer.MAX_VALUE;
+    }
+
+    @Benchmark
+    public boolean insertAndRemove(Dataset dataset) {
+        int query = nextStep() % Dataset.queryCount;
+        spatialPoints.insert(dataset.queryLatitudes[query], dataset.queryLongitudes[query], -1);
+        return spatialPoints.remove(new QuadNode<>(dataset.queryLatitudes[query], dataset.queryLongitudes[query], -1));
+    }
+
+    // Moves a point towards a query position and back, so both relocations are in the score.
+    @Benchmark
+    public QuadNode<Integer> moveAndBack(Dataset dataset) {
+        int step = nextStep();
+        int i = step % dataset.size;
+        int query = step % Dataset.queryCount;
+        QuadNode<Integer> moved = spatialPoints.move(new QuadNode<>(dataset.latitudes[i], dataset.longitudes[i], dataset.data[i]),
+                dataset.queryLatitudes[query], dataset.queryLongitudes[query]);
+        return spatialPoints.move(moved, dataset.latitudes[i], dataset.longitudes[i]);
+    }
+
+    @State(Scope.Thread)
+    public static class FullIndex {
+        SpatialPoints<Integer> spatialPoints;
+
+        @Setup(Level.Invocation)
+        public void load(Dataset dataset) {
+            spatialPoints = MutationBenchmark.load(dataset, true);
+        }
+    }
+}
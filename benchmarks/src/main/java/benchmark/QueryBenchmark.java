@@ -0,0 +1,53 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quad.QuadNode;
+import quad.QuadTree;
+import quad.SpatialPoints;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+    private SpatialPoints<Integer> spatialPoints;
+    private int next;
+
+    @Setup
+    public void load(Dataset dataset) {
+        spatialPoints = SpatialPoints.bulkLoad(dataset.latitudes, dataset.longitudes, dataset.data,
+                dataset.leafCapacity, QuadTree.defaultMinCellSize, dataset.mergeThreshold());
+    }
+
+    private int nextQuery() {
+        int query = next;
+        next = (next + 1) & (Dataset.queryCount - 1);
+        return query;
+    }
+
+    @Benchmark
+    public QuadTree<Integer> search(Dataset dataset) {
+        int query = nextQuery();
+        return spatialPoints.search(dataset.queryLatitudes[query], dataset.queryLongitudes[query]);
+    }
+
+    @Benchmark
+    public List<QuadNode<Integer>> nearest(Dataset dataset) {
+        int query = nextQuery();
+        return spatialPoints.nearest(dataset.queryLatitudes[query], dataset.queryLongitudes[query], 10);
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import quad.QuadNode;
+import quad.QuadTree;
+import quad.SpatialPoints;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeSearchBenchmark {
+    // One degree is about this many metres, which keeps GEODESIC queries comparable to the others.
+    private static final double metresPerDegree = 111_195;
+
+    @Param({"CIRCLE", "BOX", "STRICT_BOX", "GEODESIC"})
+    public SpatialPoints.searchType searchType;
+
+    @Param({"1"})
+    public double range;
+
+    private SpatialPoints<Integer> spatialPoints;
+    private double searchRange;
+    private int next;
+
+    @Setup
+    public void load(Dataset dataset) {
+        spatialPoints = SpatialPoints.bulkLoad(dataset.latitudes, dataset.longitudes, dataset.data,
+                dataset.leafCapacity, QuadTree.defaultMinCellSize, dataset.mergeThreshold());
+        searchRange = searchType == SpatialPoints.searchType.GEODESIC ? range * metresPerDegree : range;
+    }
+
+    private int nextQuery() {
+        int query = next;
+        next = (next + 1) & (Dataset.queryCount - 1);
+        return query;
+    }
+
+    @Benchmark
+    public Set<QuadNode<Integer>> rangeSearch(Dataset dataset) {
+        int query = nextQuery();
+        return spatialPoints.rangeSearch(dataset.queryLatitudes[query], dataset.queryLongitudes[query], searchRange, searchType);
+    }
+
+    // The streaming form leaves out building the result set, isolating the traversal itself.
+    @Benchmark
+    public void rangeSearchConsumer(Dataset dataset, Blackhole blackhole) {
+        int query = nextQuery();
+        spatialPoints.rangeSearch(dataset.queryLatitudes[query], dataset.queryLongitudes[query], searchRange, searchType,
+                (latitude, longitude, data) -> blackhole.consume(data));
+    }
+}
@@ -6,11 +6,17 @@ import static quad.SpatialPoints.searchType.*;
 
 public class Application {
     public static void main(String[] args) {
-        SpatialPoints<String> spatialPoints = new SpatialPoints<>();
+        int size = 1_000;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        String[] data = new String[size];
         long time = System.currentTimeMillis();
-        for (int i = 0; i < 1_000; i++) {
-            spatialPoints.insert(Math.random() * 100, Math.random() * 100, String.valueOf(i));
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = Math.random() * 100;
+            longitudes[i] = Math.random() * 100;
+            data[i] = String.valueOf(i);
         }
+        SpatialPoints<String> spatialPoints = SpatialPoints.bulkLoad(latitudes, longitudes, data);
         System.out.println("InsertionTime:" + (System.currentTimeMillis() - time));
 
         Graph<String> quadTree = new Graph<>(spatialPoints, 75, 75, 20, CIRCLE, String::valueOf);
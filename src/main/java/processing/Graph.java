@@ -1,8 +1,10 @@
 package processing;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import quad.QuadNode;
 import quad.QuadTree;
+import quad.SpatialGrid;
 import quad.SpatialPoints;
 
 import java.util.*;
@@ -17,12 +19,20 @@ public class Graph<T> extends PApplet {
     private Double range;
     private SpatialPoints.searchType searchType;
     private int mouseRange = 20;
+    private SpatialGrid<T> hoverGrid;
     private boolean isShowingHoveredNodes = true;
     private Set<QuadNode<T>> searchedNodes;
     private QuadTree<T> searchTree;
     private Integer size;
     private final Function<Integer, T> dataFunction;
     private boolean showSearchResult = true;
+    private PGraphics layer;
+    private SpatialPoints<T> layerSource;
+    private long layerModifications;
+    private double top;
+    private double left;
+    private double bottom;
+    private double right;
 
     public Graph(SpatialPoints<T> spatialPoints, double latitude, double longitude, double range, SpatialPoints.searchType searchType, Function<Integer, T> dataFunction) {
         this.spatialPoints = spatialPoints;
@@ -57,6 +67,7 @@ public class Graph<T> extends PApplet {
 
     public void settings() {
         size(900, 900);
+        hoverGrid = null;
         if (latitude != null && longitude != null) {
             if (range != null) {
                 long startTime = System.currentTimeMillis();
@@ -77,9 +88,12 @@ public class Graph<T> extends PApplet {
         return Math.abs((x / (oldR - oldL)) * (newR - newL));
     }
 
+    // The tree and its points are drawn once into an off-screen layer, which is only drawn again
+    // after the points have changed; every frame just copies it and draws the overlays on top.
     public void draw() {
-        background(255);
-        printQuadTree();
+        if (layer == null || layerSource != spatialPoints || layerModifications != spatialPoints.getModificationCount())
+            printQuadTree();
+        image(layer, 0, 0);
         printSearchResult();
         showHoveredNodes();
     }
@@ -91,14 +105,20 @@ public class Graph<T> extends PApplet {
         } else {
             noCursor();
         }
-        double mouseLatitude = map(mouseY, 0, height, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude());
-        double mouseLongitude = map(mouseX, 0, width, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude());
-        double range = resize(mouseRange, 0, height, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude());
-        Set<String> textSet = spatialPoints.rangeSearch(mouseLatitude, mouseLongitude, range, SpatialPoints.searchType.CIRCLE)
-                .stream()
-                .peek(node -> printPoint(node.getPoint().getLatitude(), node.getPoint().getLongitude(), 10, 0, 0, 255))
-                .map(node -> String.format("(%f,%f): %s", node.getPoint().getLatitude(), node.getPoint().getLongitude(), node.getData()))
-                .collect(Collectors.toSet());
+        double mouseLatitude = map(mouseY, 0, height, top, bottom);
+        double mouseLongitude = map(mouseX, 0, width, left, right);
+        double range = resize(mouseRange, 0, height, top, bottom);
+        // The hover query runs every frame with the same range, so it goes to a grid with cells of
+        // that range, dropped whenever the layer is redrawn or a key may have changed the range.
+        if (hoverGrid == null) {
+            hoverGrid = new SpatialGrid<>(range);
+            spatialPoints.forEach(hoverGrid::insert);
+        }
+        Set<String> textSet = new HashSet<>();
+        hoverGrid.rangeSearch(mouseLatitude, mouseLongitude, range, SpatialPoints.searchType.CIRCLE, (nodeLatitude, nodeLongitude, data) -> {
+            printPoint(nodeLatitude, nodeLongitude, 10, 0, 0, 255);
+            textSet.add(String.format("(%f,%f): %s", nodeLatitude, nodeLongitude, data));
+        });
         String text = String.join("\n", textSet);
         fill(0, 0, 0);
         textSize(20);
@@ -141,25 +161,52 @@ public class Graph<T> extends PApplet {
     }
 
     private void printQuadTree() {
+        layerSource = spatialPoints;
+        layerModifications = spatialPoints.getModificationCount();
         QuadTree<T> tree = spatialPoints.getQuadTree();
-        Queue<QuadTree<T>> queue = new LinkedList<>();
-        queue.add(tree);
-        while (!queue.isEmpty()) {
-            tree = queue.poll();
-            printRect(tree.getTopLeft().getLatitude(), tree.getTopLeft().getLongitude(),
-                    tree.getBottomRight().getLatitude(), tree.getBottomRight().getLongitude(),
-                    1, 200, 200, 200, 255);
-            if (tree.isLeaf()) {
-                tree.getNodes().forEach(node -> {
-                    printPoint(node.getPoint().getLatitude(), node.getPoint().getLongitude(), 5, 255, 0, 0);
-                });
-                continue;
+        top = tree.getTopLeft().getLatitude();
+        left = tree.getTopLeft().getLongitude();
+        bottom = tree.getBottomRight().getLatitude();
+        right = tree.getBottomRight().getLongitude();
+        hoverGrid = null;
+        if (layer == null || layer.width != width || layer.height != height)
+            layer = createGraphics(width, height);
+        layer.beginDraw();
+        layer.background(255);
+        layer.rectMode(CORNERS);
+        printQuadTree(tree);
+        layer.endDraw();
+    }
+
+    // Subtrees narrower and shorter than a pixel are filled in one shade of red, darker the more
+    // points they hold, instead of drawing each of their nodes and points.
+    private void printQuadTree(QuadTree<T> tree) {
+        float x1 = (float) map(tree.getTopLeft().getLongitude(), left, right, 0, width);
+        float y1 = (float) map(tree.getTopLeft().getLatitude(), top, bottom, 0, height);
+        float x2 = (float) map(tree.getBottomRight().getLongitude(), left, right, 0, width);
+        float y2 = (float) map(tree.getBottomRight().getLatitude(), top, bottom, 0, height);
+        if (x2 - x1 < 1 && y2 - y1 < 1) {
+            if (tree.getSize() > 0) {
+                layer.noStroke();
+                layer.fill(255, 0, 0, Math.min(255, 64 * (32 - Integer.numberOfLeadingZeros(tree.getSize()))));
+                layer.rect(x1, y1, Math.max(x2, x1 + 1), Math.max(y2, y1 + 1));
             }
-            queue.add(tree.getBottomLeftTree());
-            queue.add(tree.getBottomRightTree());
-            queue.add(tree.getTopLeftTree());
-            queue.add(tree.getTopRightTree());
+            return;
+        }
+        layer.stroke(200, 200, 200);
+        layer.strokeWeight(1);
+        layer.fill(255);
+        layer.rect(x1, y1, x2, y2);
+        if (tree.isLeaf()) {
+            layer.stroke(255, 0, 0);
+            layer.strokeWeight(5);
+            tree.forEach((latitude, longitude, data) -> layer.point((float) map(longitude, left, right, 0, width), (float) map(latitude, top, bottom, 0, height)));
+            return;
         }
+        printQuadTree(tree.getBottomLeftTree());
+        printQuadTree(tree.getBottomRightTree());
+        printQuadTree(tree.getTopLeftTree());
+        printQuadTree(tree.getTopRightTree());
     }
 
     void printCircle(double lat1, double long1, double radius, int strokeWeight, int r, int g, int b, Integer fill) {
@@ -170,10 +217,10 @@ public class Graph<T> extends PApplet {
         else
             fill(fill);
         strokeWeight(strokeWeight);
-        lat1 = map(lat1, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        long1 = map(long1, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
-        double rangeLat = resize(radius, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        double rangeLong = resize(radius, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
+        lat1 = map(lat1, top, bottom, 0, height);
+        long1 = map(long1, left, right, 0, width);
+        double rangeLat = resize(radius, top, bottom, 0, height);
+        double rangeLong = resize(radius, left, right, 0, width);
         ellipse((int) long1, (int) lat1, (int) rangeLong, (int) rangeLat);
     }
 
@@ -185,10 +232,10 @@ public class Graph<T> extends PApplet {
         else
             fill(fill);
         strokeWeight(strokeWeight);
-        lat1 = map(lat1, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        long1 = map(long1, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
-        double rangeLat = resize(range, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        double rangeLong = resize(range, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
+        lat1 = map(lat1, top, bottom, 0, height);
+        long1 = map(long1, left, right, 0, width);
+        double rangeLat = resize(range, top, bottom, 0, height);
+        double rangeLong = resize(range, left, right, 0, width);
         rect((int) long1, (int) lat1, (int) rangeLong, (int) rangeLat);
     }
 
@@ -200,18 +247,18 @@ public class Graph<T> extends PApplet {
         else
             fill(fill);
         strokeWeight(strokeWeight);
-        lat1 = map(lat1, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        lat2 = map(lat2, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        long1 = map(long1, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
-        long2 = map(long2, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
+        lat1 = map(lat1, top, bottom, 0, height);
+        lat2 = map(lat2, top, bottom, 0, height);
+        long1 = map(long1, left, right, 0, width);
+        long2 = map(long2, left, right, 0, width);
         rect((int) long1, (int) lat1, (int) long2, (int) lat2);
     }
 
     void printPoint(double latitude, double longitude, int strokeWeight, int r, int g, int b) {
         stroke(r, g, b);
         strokeWeight(strokeWeight);
-        latitude = map(latitude, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude(), 0, height);
-        longitude = map(longitude, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude(), 0, width);
+        latitude = map(latitude, top, bottom, 0, height);
+        longitude = map(longitude, left, right, 0, width);
         point((float) longitude, (float) latitude);
     }
 
@@ -231,11 +278,17 @@ public class Graph<T> extends PApplet {
                     mouseRange = Math.max(mouseRange - 1, 10);
                 break;
             case 'r': {
-                int size = spatialPoints.getQuadTree().getNodes().size();
-                spatialPoints = new SpatialPoints<>();
+                int size = spatialPoints.getQuadTree().getSize();
+                double[] latitudes = new double[size];
+                double[] longitudes = new double[size];
+                @SuppressWarnings("unchecked")
+                T[] data = (T[]) new Object[size];
                 for (int i = 0; i < size; i++) {
-                    spatialPoints.insert(Math.random() * 100, Math.random() * 100, dataFunction.apply(i));
+                    latitudes[i] = Math.random() * 100;
+                    longitudes[i] = Math.random() * 100;
+                    data[i] = dataFunction.apply(i);
                 }
+                spatialPoints = SpatialPoints.bulkLoad(latitudes, longitudes, data);
                 break;
             }
             case ']':
@@ -256,8 +309,8 @@ public class Graph<T> extends PApplet {
                 break;
             case 'p':
                 if (showSearchResult) {
-                    latitude = map(mouseY, 0, height, spatialPoints.getQuadTree().getTopLeft().getLatitude(), spatialPoints.getQuadTree().getBottomRight().getLatitude());
-                    longitude = map(mouseX, 0, width, spatialPoints.getQuadTree().getTopLeft().getLongitude(), spatialPoints.getQuadTree().getBottomRight().getLongitude());
+                    latitude = map(mouseY, 0, height, top, bottom);
+                    longitude = map(mouseX, 0, width, left, right);
                 }
                 break;
             case '\'': {
@@ -280,7 +333,7 @@ public class Graph<T> extends PApplet {
                 break;
             case 'x':
                 if (showSearchResult) {
-                    List<SpatialPoints.searchType> searchTypeList = Arrays.asList(SpatialPoints.searchType.values());
+                    List<SpatialPoints.searchType> searchTypeList = Arrays.asList(SpatialPoints.searchType.CIRCLE, SpatialPoints.searchType.BOX, SpatialPoints.searchType.STRICT_BOX);
                     searchType = searchTypeList.get((searchTypeList.indexOf(searchType) + 1) % searchTypeList.size());
                 }
                 break;
@@ -0,0 +1,29 @@
+package quad;
+
+// A running count and coordinate sums, added to a point at a time or a whole subtree at once.
+final class Aggregate {
+    private long count;
+    private double latitudeSum;
+    private double longitudeSum;
+
+    void add(double latitude, double longitude) {
+        count++;
+        latitudeSum += latitude;
+        longitudeSum += longitude;
+    }
+
+    void add(long count, double latitudeSum, double longitudeSum) {
+        this.count += count;
+        this.latitudeSum += latitudeSum;
+        this.longitudeSum += longitudeSum;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    // Null when no point was added.
+    Point centroid() {
+        return count == 0 ? null : new Point(latitudeSum / count, longitudeSum / count);
+    }
+}
@@ -0,0 +1,6 @@
+package quad;
+
+@FunctionalInterface
+public interface BatchConsumer<T> {
+    void accept(int query, double latitude, double longitude, T data);
+}
@@ -0,0 +1,49 @@
+package quad;
+
+final class BoxRegion implements Region {
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+
+    BoxRegion(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return minLatitude <= this.maxLatitude
+                && maxLatitude >= this.minLatitude
+                && minLongitude <= this.maxLongitude
+                && maxLongitude >= this.minLongitude;
+    }
+
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return minLatitude >= this.minLatitude
+                && maxLatitude <= this.maxLatitude
+                && minLongitude >= this.minLongitude
+                && maxLongitude <= this.maxLongitude;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        return longitude >= minLongitude
+                && longitude <= maxLongitude
+                && latitude >= minLatitude
+                && latitude <= maxLatitude;
+    }
+
+    @Override
+    public String toString() {
+        return "BoxRegion{" +
+                "minLatitude=" + minLatitude +
+                ", maxLatitude=" + maxLatitude +
+                ", minLongitude=" + minLongitude +
+                ", maxLongitude=" + maxLongitude +
+                '}';
+    }
+}
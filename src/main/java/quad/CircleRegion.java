@@ -0,0 +1,45 @@
+package quad;
+
+final class CircleRegion implements Region {
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double radiusSquared;
+
+    CircleRegion(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.radiusSquared = radius * radius;
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        double dLat = latitude - Math.max(minLatitude, Math.min(latitude, maxLatitude));
+        double dLong = longitude - Math.max(minLongitude, Math.min(longitude, maxLongitude));
+        return dLat * dLat + dLong * dLong <= radiusSquared;
+    }
+
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        double dLat = Math.max(latitude - minLatitude, maxLatitude - latitude);
+        double dLong = Math.max(longitude - minLongitude, maxLongitude - longitude);
+        return dLat * dLat + dLong * dLong <= radiusSquared;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        double dLat = latitude - this.latitude;
+        double dLong = longitude - this.longitude;
+        return dLat * dLat + dLong * dLong <= radiusSquared;
+    }
+
+    @Override
+    public String toString() {
+        return "CircleRegion{" +
+                "latitude=" + latitude +
+                ", longitude=" + longitude +
+                ", radius=" + radius +
+                '}';
+    }
+}
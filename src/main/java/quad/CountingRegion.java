@@ -0,0 +1,47 @@
+package quad;
+
+// Wraps a region to count a traversal's work without touching the traversal itself: every
+// non-empty node tests intersects, and a leaf is being scanned when point tests follow directly
+// on the test of its own bounds.
+final class CountingRegion implements Region {
+    private final Region region;
+    private final QueryStats stats;
+    private boolean testedBounds;
+
+    CountingRegion(Region region, QueryStats stats) {
+        this.region = region;
+        this.stats = stats;
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        stats.nodesVisited++;
+        testedBounds = false;
+        return region.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        testedBounds = true;
+        return region.contains(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public Overlap overlap(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        stats.nodesVisited++;
+        testedBounds = true;
+        return region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (testedBounds) {
+            stats.leavesScanned++;
+            testedBounds = false;
+        }
+        boolean contains = region.contains(latitude, longitude);
+        if (!contains)
+            stats.rejected++;
+        return contains;
+    }
+}
@@ -0,0 +1,59 @@
+package quad;
+
+// Point counts over a grid of equal cells laid over a rectangle, row 0 being the top one. Cells
+// include their top and left sides, the last row and column their bottom and right ones as well,
+// and points outside of the rectangle are left out.
+final class DensityGrid {
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+    private final int columns;
+    private final int rows;
+    private final int[][] counts;
+
+    DensityGrid(Point topLeft, Point bottomRight, int columns, int rows) {
+        if (columns < 1 || rows < 1)
+            throw new IllegalArgumentException("columns and rows must be at least 1: " + columns + ", " + rows);
+        this.minLatitude = bottomRight.getLatitude();
+        this.maxLatitude = topLeft.getLatitude();
+        this.minLongitude = topLeft.getLongitude();
+        this.maxLongitude = bottomRight.getLongitude();
+        this.columns = columns;
+        this.rows = rows;
+        this.counts = new int[rows][columns];
+    }
+
+    boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return minLatitude <= this.maxLatitude && maxLatitude >= this.minLatitude
+                && minLongitude <= this.maxLongitude && maxLongitude >= this.minLongitude;
+    }
+
+    // Both are monotonic, so every point between two that share a cell falls in that cell too.
+    int row(double latitude) {
+        if (!(latitude >= minLatitude && latitude <= maxLatitude))
+            return -1;
+        return Math.min(rows - 1, (int) ((maxLatitude - latitude) / (maxLatitude - minLatitude) * rows));
+    }
+
+    int column(double longitude) {
+        if (!(longitude >= minLongitude && longitude <= maxLongitude))
+            return -1;
+        return Math.min(columns - 1, (int) ((longitude - minLongitude) / (maxLongitude - minLongitude) * columns));
+    }
+
+    void add(double latitude, double longitude) {
+        int row = row(latitude);
+        int column = column(longitude);
+        if (row >= 0 && column >= 0)
+            counts[row][column]++;
+    }
+
+    void add(int row, int column, int count) {
+        counts[row][column] += count;
+    }
+
+    int[][] getCounts() {
+        return counts;
+    }
+}
@@ -0,0 +1,124 @@
+package quad;
+
+// A spherical cap on the earth: latitude and longitude in degrees, radius in metres.
+final class GeodesicRegion implements Region {
+    static final double earthRadius = 6_371_008.8;
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double cosLatitude;
+    private final double maxHaversine;
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double longitudeRange;
+
+    GeodesicRegion(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        double angle = Math.min(radius / earthRadius, Math.PI);
+        double phi = Math.toRadians(latitude);
+        this.cosLatitude = Math.cos(phi);
+        double halfChord = Math.sin(angle / 2);
+        this.maxHaversine = halfChord * halfChord;
+        double north = phi + angle;
+        double south = phi - angle;
+        if (north < Math.PI / 2 && south > -Math.PI / 2) {
+            this.minLatitude = Math.toDegrees(south);
+            this.maxLatitude = Math.toDegrees(north);
+            this.longitudeRange = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angle) / cosLatitude)));
+        } else {
+            this.minLatitude = Math.max(Math.toDegrees(south), -90);
+            this.maxLatitude = Math.min(Math.toDegrees(north), 90);
+            this.longitudeRange = 180;
+        }
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (minLatitude > this.maxLatitude || maxLatitude < this.minLatitude)
+            return false;
+        if (longitudeRange >= 180)
+            return true;
+        double west = longitude - longitudeRange;
+        double east = longitude + longitudeRange;
+        return overlaps(minLongitude, maxLongitude, west, east)
+                || overlaps(minLongitude, maxLongitude, west - 360, east - 360)
+                || overlaps(minLongitude, maxLongitude, west + 360, east + 360);
+    }
+
+    private static boolean overlaps(double min, double max, double west, double east) {
+        return min <= east && max >= west;
+    }
+
+    // A rectangle is inside when its farthest point is. Along a parallel the distance grows with the
+    // difference in longitude up to 180 degrees, so that point lies on one of the side meridians or
+    // on the meridian opposite the centre, where the rectangle crosses it. Along a meridian within
+    // 90 degrees of the centre it grows towards the ends, but further away it peaks in between.
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (!(maxLongitude - minLongitude <= 180))
+            return false;
+        if (!contains(minLatitude, maxLatitude, minLongitude) || !contains(minLatitude, maxLatitude, maxLongitude))
+            return false;
+        double opposite = longitude + 180;
+        double crossing = opposite + 360 * Math.ceil((minLongitude - opposite) / 360);
+        return crossing > maxLongitude || contains(minLatitude, maxLatitude, crossing);
+    }
+
+    // Whether the part of a meridian between the two latitudes is inside. Beyond 90 degrees from the
+    // centre the distance peaks where tan(latitude) = tan(centre's latitude) / cos(difference in
+    // longitude), which is the latitude opposite the centre's on the far meridian.
+    private boolean contains(double minLatitude, double maxLatitude, double longitude) {
+        if (!contains(minLatitude, longitude) || !contains(maxLatitude, longitude))
+            return false;
+        double cosLong = Math.cos(Math.toRadians(longitude - this.longitude));
+        if (cosLong >= 0)
+            return true;
+        double peak = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(latitude)) / cosLong));
+        return peak <= minLatitude || peak >= maxLatitude || contains(peak, longitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < minLatitude || latitude > maxLatitude)
+            return false;
+        double dLong = longitude - this.longitude;
+        if (longitudeRange < 180) {
+            double wrapped = Math.abs(dLong - 360 * Math.rint(dLong / 360));
+            if (wrapped > longitudeRange)
+                return false;
+        }
+        // Haversine in its squared half-chord form, compared against the radius without asin/sqrt.
+        double sinHalfLat = Math.sin(Math.toRadians(latitude - this.latitude) / 2);
+        double sinHalfLong = Math.sin(Math.toRadians(dLong) / 2);
+        double haversine = sinHalfLat * sinHalfLat + cosLatitude * Math.cos(Math.toRadians(latitude)) * sinHalfLong * sinHalfLong;
+        return haversine <= maxHaversine;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    double getMinLatitude() {
+        return minLatitude;
+    }
+
+    double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    // 180 once the cap reaches a pole, where it spans every longitude.
+    double getLongitudeRange() {
+        return longitudeRange;
+    }
+
+    @Override
+    public String toString() {
+        return "GeodesicRegion{" +
+                "latitude=" + latitude +
+                ", longitude=" + longitude +
+                ", radius=" + radius +
+                '}';
+    }
+}
@@ -0,0 +1,174 @@
+package quad;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// Aggregates the QueryStats of an instrumented SpatialPoints and forwards each of them to the
+// registered listeners. Structural attributes are computed by walking the tree when they are read.
+public final class Instrumentation implements SpatialPointsMXBean {
+    private static final double[] percentiles = {50, 90, 99, 99.9, 100};
+    private static final String[] percentileLabels = {"p50", "p90", "p99", "p99.9", "max"};
+
+    private final SpatialPoints<?> spatialPoints;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder leavesScanned = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final List<QueryListener> listeners = new CopyOnWriteArrayList<>();
+
+    Instrumentation(SpatialPoints<?> spatialPoints) {
+        this.spatialPoints = spatialPoints;
+    }
+
+    void record(QueryStats stats) {
+        queries.increment();
+        nodesVisited.add(stats.nodesVisited);
+        leavesScanned.add(stats.leavesScanned);
+        rejected.add(stats.rejected);
+        returned.add(stats.returned);
+        latencies.computeIfAbsent(stats.getQueryType(), queryType -> new LatencyHistogram()).record(stats.nanos);
+        for (QueryListener listener : listeners)
+            listener.queryCompleted(stats);
+    }
+
+    // Listeners run on the querying thread, after the query has completed.
+    public void addListener(QueryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(QueryListener listener) {
+        listeners.remove(listener);
+    }
+
+    public LatencyHistogram getLatencyHistogram(String queryType) {
+        return latencies.get(queryType);
+    }
+
+    // Throws InstanceAlreadyExistsException when the name is taken, which may be by another live index.
+    public ObjectName register(String name) throws JMException {
+        return register(name, false);
+    }
+
+    // With replace set an MBean already registered under the name is unregistered first, whatever
+    // index it belongs to.
+    public ObjectName register(String name, boolean replace) throws JMException {
+        ObjectName objectName = new ObjectName("quad:type=SpatialPoints,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            if (!replace)
+                throw e;
+            server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+        return objectName;
+    }
+
+    public TreeStatistics getTreeStatistics() {
+        return spatialPoints.treeStatistics();
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    @Override
+    public long getLeavesScanned() {
+        return leavesScanned.sum();
+    }
+
+    @Override
+    public long getCandidates() {
+        return rejected.sum() + returned.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getReturned() {
+        return returned.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLatencyPercentiles() {
+        Map<String, Long> answer = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            for (int i = 0; i < percentiles.length; i++)
+                answer.put(entry.getKey() + " " + percentileLabels[i], entry.getValue().getValueAtPercentile(percentiles[i]));
+        }
+        return answer;
+    }
+
+    @Override
+    public int getSize() {
+        return spatialPoints.getSize();
+    }
+
+    @Override
+    public long getNodes() {
+        return getTreeStatistics().getNodes();
+    }
+
+    @Override
+    public long getLeaves() {
+        return getTreeStatistics().getLeaves();
+    }
+
+    @Override
+    public long getEmptyLeaves() {
+        return getTreeStatistics().getEmptyLeaves();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return getTreeStatistics().getMaxDepth();
+    }
+
+    @Override
+    public long[] getDepthHistogram() {
+        return getTreeStatistics().getDepthHistogram();
+    }
+
+    @Override
+    public long[] getLeafOccupancyHistogram() {
+        return getTreeStatistics().getLeafOccupancyHistogram();
+    }
+
+    @Override
+    public long getEstimatedRetainedBytes() {
+        return getTreeStatistics().getEstimatedRetainedBytes();
+    }
+
+    @Override
+    public void reset() {
+        queries.reset();
+        nodesVisited.reset();
+        leavesScanned.reset();
+        rejected.reset();
+        returned.reset();
+        for (LatencyHistogram histogram : latencies.values())
+            histogram.reset();
+    }
+}
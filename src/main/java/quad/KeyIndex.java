@@ -0,0 +1,55 @@
+package quad;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Maps the key of every stored payload to the node holding it, so a point can be found, moved or
+// removed by key with one hash lookup and one descent instead of a scan of the whole index. Keys
+// must be unique and not null. It is only changed by writers, under the write lock when the index
+// is concurrent, while readers look keys up without one.
+final class KeyIndex<T> {
+    private final Function<? super T, ?> keyFunction;
+    private final ConcurrentHashMap<Object, QuadNode<T>> nodes = new ConcurrentHashMap<>();
+
+    KeyIndex(Function<? super T, ?> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    Object keyOf(T data) {
+        Object key = keyFunction.apply(data);
+        if (key == null)
+            throw new IllegalArgumentException("key must not be null: " + data);
+        return key;
+    }
+
+    // Checks a payload can be added before the write, which leaves the index untouched on failure.
+    Object claim(T data) {
+        Object key = keyOf(data);
+        if (nodes.containsKey(key))
+            throw new IllegalArgumentException("duplicate key: " + key);
+        return key;
+    }
+
+    void put(Object key, QuadNode<T> node) {
+        nodes.put(key, node);
+    }
+
+    // Used to index the existing points, possibly from several threads at once.
+    void add(double latitude, double longitude, T data) {
+        Object key = keyOf(data);
+        if (nodes.putIfAbsent(key, new QuadNode<>(latitude, longitude, data)) != null)
+            throw new IllegalArgumentException("duplicate key: " + key);
+    }
+
+    void removed(QuadNode<T> node) {
+        nodes.remove(keyOf(node.getData()));
+    }
+
+    void moved(QuadNode<T> node) {
+        nodes.put(keyOf(node.getData()), node);
+    }
+
+    QuadNode<T> get(Object key) {
+        return nodes.get(key);
+    }
+}
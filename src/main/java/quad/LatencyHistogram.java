@@ -0,0 +1,59 @@
+package quad;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A log-linear histogram in the manner of HdrHistogram: values are bucketed by their highest bit
+// and the next four bits, which bounds the relative error of a reported percentile to 1/16.
+public final class LatencyHistogram {
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+    private final AtomicLongArray counts = new AtomicLongArray((64 - subBucketBits) * subBuckets);
+
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    private static int index(long value) {
+        if (value < subBuckets)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - subBucketBits + 1) * subBuckets + (int) ((value >>> (exponent - subBucketBits)) & (subBuckets - 1));
+    }
+
+    private static long highestValue(int index) {
+        if (index < subBuckets)
+            return index;
+        int shift = index / subBuckets - 1;
+        long lowest = (long) (subBuckets + index % subBuckets) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    // The highest value of the bucket holding the given percentile, or 0 when nothing was recorded.
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return highestValue(i);
+        }
+        return highestValue(counts.length() - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+    }
+}
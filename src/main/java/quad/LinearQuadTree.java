@@ -0,0 +1,364 @@
+package quad;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+// Points kept as one run sorted by Morton key, with their coordinates and payloads in parallel
+// arrays. The quadtree is implicit: the points of any quadrant form a contiguous run of keys found
+// by binary search, so a query splits its region into key intervals without following a pointer.
+// Quadrants split at the same midpoints QuadTree uses, and the edge quadrants are left open so
+// that points inserted outside of the bounds are still reached.
+final class LinearQuadTree<P> {
+    private static final long[] emptyKeys = new long[0];
+    private static final double[] emptyCoordinates = new double[0];
+    private static final Object[] emptyData = new Object[0];
+    private final Point topLeft;
+    private final Point bottomRight;
+    private final int leafCapacity;
+    private final MortonOrder.Encoder encoder;
+    private long[] keys = emptyKeys;
+    private double[] latitudes = emptyCoordinates;
+    private double[] longitudes = emptyCoordinates;
+    private Object[] data = emptyData;
+    private int size;
+
+    LinearQuadTree(Point topLeft, Point bottomRight, int leafCapacity) {
+        if (leafCapacity < 1)
+            throw new IllegalArgumentException("leafCapacity must be at least 1: " + leafCapacity);
+        this.topLeft = topLeft;
+        this.bottomRight = bottomRight;
+        this.leafCapacity = leafCapacity;
+        this.encoder = MortonOrder.encoder(topLeft, bottomRight);
+    }
+
+    static <P> LinearQuadTree<P> bulkLoad(Point topLeft, Point bottomRight, int leafCapacity, double[] latitudes, double[] longitudes, Object[] data) {
+        if (latitudes.length != longitudes.length || latitudes.length != data.length)
+            throw new IllegalArgumentException("latitudes, longitudes and data must have the same length");
+        LinearQuadTree<P> tree = new LinearQuadTree<>(topLeft, bottomRight, leafCapacity);
+        int n = latitudes.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = tree.encoder.key(latitudes[i], longitudes[i]);
+        int[] order = MortonOrder.sort(keys);
+        tree.keys = new long[n];
+        tree.latitudes = new double[n];
+        tree.longitudes = new double[n];
+        tree.data = new Object[n];
+        for (int i = 0; i < n; i++) {
+            tree.keys[i] = keys[order[i]];
+            tree.latitudes[i] = latitudes[order[i]];
+            tree.longitudes[i] = longitudes[order[i]];
+            tree.data[i] = data[order[i]];
+        }
+        tree.size = n;
+        return tree;
+    }
+
+    // Inserts shift the tail of the arrays along, which is cheap next to a query for the
+    // read-mostly data this layout is meant for.
+    void insert(double latitude, double longitude, P value) {
+        long key = encoder.key(latitude, longitude);
+        int index = upperBound(key);
+        if (size == keys.length) {
+            int capacity = Math.max(16, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            data = Arrays.copyOf(data, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(latitudes, index, latitudes, index + 1, size - index);
+        System.arraycopy(longitudes, index, longitudes, index + 1, size - index);
+        System.arraycopy(data, index, data, index + 1, size - index);
+        keys[index] = key;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        data[index] = value;
+        size++;
+    }
+
+    boolean remove(QuadNode<P> node) {
+        int index = indexOf(node);
+        if (index < 0)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    boolean move(QuadNode<P> node, double latitude, double longitude) {
+        int index = indexOf(node);
+        if (index < 0)
+            return false;
+        if (encoder.key(latitude, longitude) == keys[index]) {
+            latitudes[index] = latitude;
+            longitudes[index] = longitude;
+            return true;
+        }
+        removeAt(index);
+        insert(latitude, longitude, node.getData());
+        return true;
+    }
+
+    private int indexOf(QuadNode<P> node) {
+        double latitude = node.getPoint().getLatitude();
+        double longitude = node.getPoint().getLongitude();
+        long key = encoder.key(latitude, longitude);
+        for (int i = lowerBound(key); i < size && keys[i] == key; i++) {
+            if (latitudes[i] == latitude && longitudes[i] == longitude && Objects.equals(data[i], node.getData()))
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(latitudes, index + 1, latitudes, index, moved);
+        System.arraycopy(longitudes, index + 1, longitudes, index, moved);
+        System.arraycopy(data, index + 1, data, index, moved);
+        data[--size] = null;
+    }
+
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int upperBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    void rangeSearch(Region region, boolean coarse, PointConsumer<P> consumer) {
+        rangeSearch(region, coarse, consumer, 0, 0, size,
+                bottomRight.getLatitude(), topLeft.getLatitude(), topLeft.getLongitude(), bottomRight.getLongitude());
+    }
+
+    private void rangeSearch(Region region, boolean coarse, PointConsumer<P> consumer, int level, int from, int to,
+                             double lowLatitude, double highLatitude, double lowLongitude, double highLongitude) {
+        if (from == to)
+            return;
+        double minLatitude = lowLatitude == bottomRight.getLatitude() ? Double.NEGATIVE_INFINITY : lowLatitude;
+        double maxLatitude = highLatitude == topLeft.getLatitude() ? Double.POSITIVE_INFINITY : highLatitude;
+        double minLongitude = lowLongitude == topLeft.getLongitude() ? Double.NEGATIVE_INFINITY : lowLongitude;
+        double maxLongitude = highLongitude == bottomRight.getLongitude() ? Double.POSITIVE_INFINITY : highLongitude;
+        Region.Overlap overlap = region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        if (overlap == Region.Overlap.OUTSIDE)
+            return;
+        if (overlap == Region.Overlap.INSIDE) {
+            forEach(from, to, consumer);
+            return;
+        }
+        if (to - from <= leafCapacity || level == MortonOrder.levels) {
+            for (int i = from; i < to; i++) {
+                if (coarse || region.contains(latitudes[i], longitudes[i]))
+                    consumer.accept(latitudes[i], longitudes[i], dataAt(i));
+            }
+            return;
+        }
+
+        double midLatitude = (highLatitude + lowLatitude) / 2;
+        double midLongitude = (highLongitude + lowLongitude) / 2;
+        int bottomRightFrom = QuadTree.quadrantStart(keys, from, to, level, MortonOrder.bottomRight);
+        int topLeftFrom = QuadTree.quadrantStart(keys, bottomRightFrom, to, level, MortonOrder.topLeft);
+        int topRightFrom = QuadTree.quadrantStart(keys, topLeftFrom, to, level, MortonOrder.topRight);
+        rangeSearch(region, coarse, consumer, level + 1, from, bottomRightFrom, lowLatitude, midLatitude, lowLongitude, midLongitude);
+        rangeSearch(region, coarse, consumer, level + 1, bottomRightFrom, topLeftFrom, lowLatitude, midLatitude, midLongitude, highLongitude);
+        rangeSearch(region, coarse, consumer, level + 1, topLeftFrom, topRightFrom, midLatitude, highLatitude, lowLongitude, midLongitude);
+        rangeSearch(region, coarse, consumer, level + 1, topRightFrom, to, midLatitude, highLatitude, midLongitude, highLongitude);
+    }
+
+    void forEach(PointConsumer<P> consumer) {
+        forEach(0, size, consumer);
+    }
+
+    private void forEach(int from, int to, PointConsumer<P> consumer) {
+        for (int i = from; i < to; i++)
+            consumer.accept(latitudes[i], longitudes[i], dataAt(i));
+    }
+
+    List<QuadNode<P>> nearest(double latitude, double longitude, int k, double maxDistance) {
+        if (k <= 0 || size == 0)
+            return Collections.emptyList();
+        double maxDistanceSquared = maxDistance * maxDistance;
+        PriorityQueue<Quadrant> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distanceSquared, a.distanceSquared));
+        PriorityQueue<Quadrant> pending = new PriorityQueue<>((a, b) -> Double.compare(a.distanceSquared, b.distanceSquared));
+        pending.add(quadrant(latitude, longitude, 0, 0, size,
+                bottomRight.getLatitude(), topLeft.getLatitude(), topLeft.getLongitude(), bottomRight.getLongitude()));
+        while (!pending.isEmpty()) {
+            Quadrant next = pending.poll();
+            if (best.size() == k && next.distanceSquared >= best.peek().distanceSquared)
+                break;
+            if (next.to - next.from <= leafCapacity || next.level == MortonOrder.levels) {
+                for (int i = next.from; i < next.to; i++) {
+                    double dLat = latitudes[i] - latitude;
+                    double dLong = longitudes[i] - longitude;
+                    double distanceSquared = dLat * dLat + dLong * dLong;
+                    if (distanceSquared > maxDistanceSquared)
+                        continue;
+                    if (best.size() < k) {
+                        best.add(new Quadrant(distanceSquared, i));
+                    } else if (distanceSquared < best.peek().distanceSquared) {
+                        best.poll();
+                        best.add(new Quadrant(distanceSquared, i));
+                    }
+                }
+                continue;
+            }
+            double midLatitude = (next.highLatitude + next.lowLatitude) / 2;
+            double midLongitude = (next.highLongitude + next.lowLongitude) / 2;
+            int bottomRightFrom = QuadTree.quadrantStart(keys, next.from, next.to, next.level, MortonOrder.bottomRight);
+            int topLeftFrom = QuadTree.quadrantStart(keys, bottomRightFrom, next.to, next.level, MortonOrder.topLeft);
+            int topRightFrom = QuadTree.quadrantStart(keys, topLeftFrom, next.to, next.level, MortonOrder.topRight);
+            Quadrant[] quadrants = {
+                    quadrant(latitude, longitude, next.level + 1, next.from, bottomRightFrom, next.lowLatitude, midLatitude, next.lowLongitude, midLongitude),
+                    quadrant(latitude, longitude, next.level + 1, bottomRightFrom, topLeftFrom, next.lowLatitude, midLatitude, midLongitude, next.highLongitude),
+                    quadrant(latitude, longitude, next.level + 1, topLeftFrom, topRightFrom, midLatitude, next.highLatitude, next.lowLongitude, midLongitude),
+                    quadrant(latitude, longitude, next.level + 1, topRightFrom, next.to, midLatitude, next.highLatitude, midLongitude, next.highLongitude)};
+            for (Quadrant quadrant : quadrants) {
+                if (quadrant.from < quadrant.to && quadrant.distanceSquared <= maxDistanceSquared)
+                    pending.add(quadrant);
+            }
+        }
+        QuadNode<P>[] answer = newNodeArray(best.size());
+        for (int i = answer.length - 1; i >= 0; i--) {
+            int index = best.poll().from;
+            answer[i] = new QuadNode<>(latitudes[index], longitudes[index], dataAt(index));
+        }
+        return Arrays.asList(answer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> QuadNode<P>[] newNodeArray(int length) {
+        return (QuadNode<P>[]) new QuadNode<?>[length];
+    }
+
+    // Edge quadrants are measured as open, since points outside of the bounds are clamped into them.
+    private Quadrant quadrant(double latitude, double longitude, int level, int from, int to,
+                              double lowLatitude, double highLatitude, double lowLongitude, double highLongitude) {
+        double minLatitude = lowLatitude == bottomRight.getLatitude() ? Double.NEGATIVE_INFINITY : lowLatitude;
+        double maxLatitude = highLatitude == topLeft.getLatitude() ? Double.POSITIVE_INFINITY : highLatitude;
+        double minLongitude = lowLongitude == topLeft.getLongitude() ? Double.NEGATIVE_INFINITY : lowLongitude;
+        double maxLongitude = highLongitude == bottomRight.getLongitude() ? Double.POSITIVE_INFINITY : highLongitude;
+        double dLat = latitude < minLatitude ? minLatitude - latitude : latitude > maxLatitude ? latitude - maxLatitude : 0;
+        double dLong = longitude < minLongitude ? minLongitude - longitude : longitude > maxLongitude ? longitude - maxLongitude : 0;
+        return new Quadrant(dLat * dLat + dLong * dLong, level, from, to, lowLatitude, highLatitude, lowLongitude, highLongitude);
+    }
+
+    // Describes the implicit tree: a quadrant is a leaf once it holds no more than leafCapacity
+    // points, and empty quadrants take no space at all.
+    TreeStatistics statistics() {
+        long[] counts = new long[3];
+        long[] depths = new long[MortonOrder.levels + 1];
+        long[] occupancy = new long[leafCapacity + 2];
+        int maxDepth = statistics(0, 0, size, counts, depths, occupancy);
+        long bytes = 4 * 16 + (long) keys.length * (8 + 8 + 8 + 4);
+        return new TreeStatistics(size, counts[0], counts[1], Arrays.copyOf(depths, maxDepth + 1), occupancy, bytes);
+    }
+
+    private int statistics(int level, int from, int to, long[] counts, long[] depths, long[] occupancy) {
+        counts[0]++;
+        if (to - from <= leafCapacity || level == MortonOrder.levels) {
+            counts[1]++;
+            depths[level]++;
+            occupancy[Math.min(to - from, occupancy.length - 1)]++;
+            return level;
+        }
+        int bottomRightFrom = QuadTree.quadrantStart(keys, from, to, level, MortonOrder.bottomRight);
+        int topLeftFrom = QuadTree.quadrantStart(keys, bottomRightFrom, to, level, MortonOrder.topLeft);
+        int topRightFrom = QuadTree.quadrantStart(keys, topLeftFrom, to, level, MortonOrder.topRight);
+        int[] bounds = {from, bottomRightFrom, topLeftFrom, topRightFrom, to};
+        int maxDepth = level;
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            if (bounds[quadrant] < bounds[quadrant + 1])
+                maxDepth = Math.max(maxDepth, statistics(level + 1, bounds[quadrant], bounds[quadrant + 1], counts, depths, occupancy));
+        }
+        return maxDepth;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    Point getTopLeft() {
+        return topLeft;
+    }
+
+    Point getBottomRight() {
+        return bottomRight;
+    }
+
+    int getLeafCapacity() {
+        return leafCapacity;
+    }
+
+    double[] latitudes() {
+        return Arrays.copyOf(latitudes, size);
+    }
+
+    double[] longitudes() {
+        return Arrays.copyOf(longitudes, size);
+    }
+
+    Object[] data() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private P dataAt(int index) {
+        return (P) data[index];
+    }
+
+    private static class Quadrant {
+        private final double distanceSquared;
+        private final int level;
+        private final int from;
+        private final int to;
+        private final double lowLatitude;
+        private final double highLatitude;
+        private final double lowLongitude;
+        private final double highLongitude;
+
+        private Quadrant(double distanceSquared, int index) {
+            this.distanceSquared = distanceSquared;
+            this.level = MortonOrder.levels;
+            this.from = index;
+            this.to = index + 1;
+            this.lowLatitude = Double.NaN;
+            this.highLatitude = Double.NaN;
+            this.lowLongitude = Double.NaN;
+            this.highLongitude = Double.NaN;
+        }
+
+        private Quadrant(double distanceSquared, int level, int from, int to,
+                         double lowLatitude, double highLatitude, double lowLongitude, double highLongitude) {
+            this.distanceSquared = distanceSquared;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.lowLatitude = lowLatitude;
+            this.highLatitude = highLatitude;
+            this.lowLongitude = lowLongitude;
+            this.highLongitude = highLongitude;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package quad;
+
+import java.util.Arrays;
+
+final class MortonOrder {
+    static final int levels = 31;
+    static final int bottomLeft = 0;
+    static final int bottomRight = 1;
+    static final int topLeft = 2;
+    static final int topRight = 3;
+    private static final long cells = 1L << levels;
+
+    private MortonOrder() {
+    }
+
+    // Keys interleave the latitude and longitude cells so that the two bits of each level name the
+    // quadrant QuadTree.childFor would pick at that depth.
+    static long key(double latitude, double longitude, Point topLeftBound, Point bottomRightBound) {
+        return encoder(topLeftBound, bottomRightBound).key(latitude, longitude);
+    }
+
+    static Encoder encoder(Point topLeftBound, Point bottomRightBound) {
+        return new Encoder(new Axis(bottomRightBound.getLatitude(), topLeftBound.getLatitude()),
+                new Axis(topLeftBound.getLongitude(), bottomRightBound.getLongitude()));
+    }
+
+    static int quadrant(long key, int level) {
+        return (int) (key >>> (2 * (levels - 1 - level))) & 3;
+    }
+
+    private static long spread(long cell) {
+        long x = cell & (cells - 1);
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    // LSD radix sort over 16 bit digits; returns the permutation that orders the keys.
+    static int[] sort(long[] keys) {
+        int n = keys.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        long[] sorted = keys.clone();
+        long[] keyBuffer = new long[n];
+        int[] orderBuffer = new int[n];
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 2 * levels; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++)
+                counts[(int) (sorted[i] >>> shift) & 0xFFFF]++;
+            if (n == 0 || counts[(int) (sorted[0] >>> shift) & 0xFFFF] == n)
+                continue;
+            for (int i = 0, total = 0; i < counts.length; i++) {
+                int count = counts[i];
+                counts[i] = total;
+                total += count;
+            }
+            for (int i = 0; i < n; i++) {
+                int position = counts[(int) (sorted[i] >>> shift) & 0xFFFF]++;
+                keyBuffer[position] = sorted[i];
+                orderBuffer[position] = order[i];
+            }
+            long[] keySwap = sorted;
+            sorted = keyBuffer;
+            keyBuffer = keySwap;
+            int[] orderSwap = order;
+            order = orderBuffer;
+            orderBuffer = orderSwap;
+        }
+        return order;
+    }
+
+    static final class Encoder {
+        private final Axis latitude;
+        private final Axis longitude;
+
+        private Encoder(Axis latitude, Axis longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        long key(double latitude, double longitude) {
+            return (spread(this.latitude.cell(latitude)) << 1) | spread(this.longitude.cell(longitude));
+        }
+    }
+
+    private static final class Axis {
+        private final double low;
+        private final double high;
+        private final double step;
+        private final boolean exact;
+
+        private Axis(double low, double high) {
+            this.low = low;
+            this.high = high;
+            this.step = (high - low) / cells;
+            this.exact = isExact(low, high, step);
+        }
+
+        // When every midpoint between the bounds is representable, the bisection QuadTree performs
+        // is plain fixed-point arithmetic and the cell can be computed directly.
+        private static boolean isExact(double low, double high, double step) {
+            double width = high - low;
+            if (!(width > 0) || Double.isInfinite(width) || low + width != high || !(step > Double.MIN_NORMAL))
+                return false;
+            double multiple = low / step;
+            long m = (long) multiple;
+            if (m != multiple)
+                return false;
+            long mantissa = (Double.doubleToLongBits(width) & 0x000FFFFFFFFFFFFFL) | 0x0010000000000000L;
+            int significantBits = 53 - Long.numberOfTrailingZeros(mantissa);
+            long limit = 1L << (52 - significantBits);
+            return Math.abs(m) < limit && Math.abs(m + cells) < limit && m * step == low;
+        }
+
+        long cell(double value) {
+            if (!exact)
+                return bisect(value);
+            if (!(value >= low))
+                return 0;
+            if (value >= high)
+                return cells - 1;
+            long cell = Math.min((long) ((value - low) / step), cells - 1);
+            while (cell > 0 && value < low + cell * step)
+                cell--;
+            while (cell < cells - 1 && value >= low + (cell + 1) * step)
+                cell++;
+            return cell;
+        }
+
+        private long bisect(double value) {
+            double low = this.low;
+            double high = this.high;
+            long cell = 0;
+            for (int level = 0; level < levels; level++) {
+                double mid = (high + low) / 2;
+                if (value >= mid) {
+                    cell = (cell << 1) | 1;
+                    low = mid;
+                } else {
+                    cell = cell << 1;
+                    high = mid;
+                }
+            }
+            return cell;
+        }
+    }
+}
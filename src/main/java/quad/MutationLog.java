@@ -0,0 +1,389 @@
+package quad;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+// A write-ahead log for a durable SpatialPoints kept in one directory as numbered segments next to
+// the latest snapshot. snapshot-N holds every mutation logged before segment N, so recovery opens
+// the newest snapshot and replays the segments from N on. Each record is framed by its length and
+// a CRC32, and a torn record at the end of the last segment is dropped on recovery.
+public final class MutationLog<T> implements Closeable {
+    static final byte insertRecord = 1;
+    static final byte removeRecord = 2;
+    static final byte moveRecord = 3;
+    private static final String snapshotPrefix = "snapshot-";
+    private static final String segmentPrefix = "log-";
+
+    private final Path directory;
+    private final Function<? super T, byte[]> encoder;
+    private final Function<ByteBuffer, ? extends T> decoder;
+    private final long syncIntervalMillis;
+    private final long compactionThreshold;
+    private final Object lock = new Object();
+    private final ScheduledExecutorService syncer;
+    private final ExecutorService compactor;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+    private long segment;
+    private long segmentLength;
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private boolean compacting;
+    private boolean closed;
+    private IOException failure;
+
+    private MutationLog(Path directory, Function<? super T, byte[]> encoder, Function<ByteBuffer, ? extends T> decoder,
+                        long syncIntervalMillis, long compactionThreshold) {
+        this.directory = directory;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.compactionThreshold = compactionThreshold;
+        this.syncer = syncIntervalMillis > 0 ? Executors.newSingleThreadScheduledExecutor(MutationLog::daemon) : null;
+        this.compactor = Executors.newSingleThreadExecutor(MutationLog::daemon);
+    }
+
+    // With a sync interval of zero every write waits for the fsync covering it, and writers arriving
+    // while one is in progress share the next one. A positive interval syncs in the background
+    // instead and bounds the writes lost on a crash to that window. The log is compacted into a new
+    // snapshot once the current segment grows past compactionThreshold bytes.
+    public static <T> MutationLog<T> open(Path directory, Function<? super T, byte[]> encoder, Function<ByteBuffer, ? extends T> decoder,
+                                          long syncIntervalMillis, long compactionThreshold) throws IOException {
+        if (syncIntervalMillis < 0)
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative: " + syncIntervalMillis);
+        if (compactionThreshold < 1)
+            throw new IllegalArgumentException("compactionThreshold must be at least 1: " + compactionThreshold);
+        Files.createDirectories(directory);
+        return new MutationLog<>(directory, encoder, decoder, syncIntervalMillis, compactionThreshold);
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "spatial-points-log");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    QuadTree<T> latestSnapshot() throws IOException {
+        List<Long> snapshots = numbered(snapshotPrefix);
+        if (snapshots.isEmpty())
+            return null;
+        return SpatialSnapshot.<T>open(snapshotPath(snapshots.get(snapshots.size() - 1)), decoder::apply).toQuadTree();
+    }
+
+    // Replays the segments written after the latest snapshot and starts appending to a fresh one.
+    void replay(SpatialPoints<T> points) throws IOException {
+        List<Long> snapshots = numbered(snapshotPrefix);
+        List<Long> segments = numbered(segmentPrefix);
+        long first = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        long last = first - 1;
+        for (int i = 0; i < segments.size(); i++) {
+            long number = segments.get(i);
+            if (number < first)
+                continue;
+            replay(segmentPath(number), points, i == segments.size() - 1);
+            last = number;
+        }
+        synchronized (lock) {
+            segment = Math.max(first, last + 1);
+            channel = openSegment(segment);
+        }
+        if (syncer != null)
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private List<Long> numbered(String prefix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    numbers.add(Long.parseLong(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours, e.g. a snapshot still being written
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path snapshotPath(long number) {
+        return directory.resolve(snapshotPrefix + number);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(segmentPrefix + number);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        segmentLength = 0;
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private void replay(Path path, SpatialPoints<T> points, boolean last) throws IOException {
+        long size = Files.size(path);
+        long valid = 0;
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                byte[] body;
+                try {
+                    int length = input.readInt();
+                    int checksum = input.readInt();
+                    if (length < 17 || length > size - valid - 8)
+                        break;
+                    body = new byte[length];
+                    input.readFully(body);
+                    if (checksum(body) != checksum)
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(body), points);
+                valid += 8 + body.length;
+            }
+        }
+        if (valid == size)
+            return;
+        if (!last)
+            throw new IOException("corrupt mutation log segment: " + path);
+        try (FileChannel torn = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            torn.truncate(valid);
+        }
+    }
+
+    private void apply(ByteBuffer record, SpatialPoints<T> points) {
+        byte type = record.get();
+        double latitude = record.getDouble();
+        double longitude = record.getDouble();
+        double newLatitude = type == moveRecord ? record.getDouble() : 0;
+        double newLongitude = type == moveRecord ? record.getDouble() : 0;
+        T data = decoder.apply(record.slice());
+        switch (type) {
+            case insertRecord:
+                points.insert(latitude, longitude, data);
+                break;
+            case removeRecord:
+                points.remove(new QuadNode<>(latitude, longitude, data));
+                break;
+            case moveRecord:
+                points.move(new QuadNode<>(latitude, longitude, data), newLatitude, newLongitude);
+                break;
+            default:
+                throw new IllegalStateException("unknown mutation log record type " + type);
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    // Appends are buffered in memory and only reach the file when a sync writes them out; callers
+    // append in the order their mutations are applied and then commit outside of their own locks.
+    long append(byte type, double latitude, double longitude, T data, double newLatitude, double newLongitude) {
+        byte[] payload = encoder.apply(data);
+        ByteBuffer body = ByteBuffer.allocate(1 + 16 + (type == moveRecord ? 16 : 0) + payload.length);
+        body.put(type).putDouble(latitude).putDouble(longitude);
+        if (type == moveRecord)
+            body.putDouble(newLatitude).putDouble(newLongitude);
+        body.put(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8);
+        frame.putInt(body.capacity()).putInt(checksum(body.array()));
+        synchronized (lock) {
+            checkOpen();
+            pending.write(frame.array(), 0, 8);
+            pending.write(body.array(), 0, body.capacity());
+            segmentLength += 8 + body.capacity();
+            return ++appended;
+        }
+    }
+
+    void commit(long sequence) {
+        if (syncIntervalMillis > 0)
+            return;
+        try {
+            sync(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (lock) {
+            sequence = appended;
+        }
+        sync(sequence);
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // kept in failure and rethrown to the next writer
+        }
+    }
+
+    private void sync(long sequence) throws IOException {
+        byte[] batch;
+        FileChannel target;
+        long upTo;
+        synchronized (lock) {
+            while (true) {
+                if (failure != null)
+                    throw failure;
+                if (durable >= sequence)
+                    return;
+                if (!syncing)
+                    break;
+                awaitSync();
+            }
+            syncing = true;
+            batch = pending.toByteArray();
+            pending = new ByteArrayOutputStream();
+            upTo = appended;
+            target = channel;
+        }
+        IOException error = null;
+        try {
+            write(target, batch);
+            target.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (lock) {
+            syncing = false;
+            if (error == null)
+                durable = upTo;
+            else
+                failure = error;
+            lock.notifyAll();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void awaitSync() throws IOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the mutation log", e);
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    boolean shouldCompact() {
+        synchronized (lock) {
+            return !compacting && !closed && segmentLength >= compactionThreshold;
+        }
+    }
+
+    // Called while the index's writers are held off: everything logged so far is made durable and
+    // later records go to a new segment, which is where the snapshot of the current root takes over.
+    long rotate() throws IOException {
+        synchronized (lock) {
+            while (syncing)
+                awaitSync();
+            checkOpen();
+            write(channel, pending.toByteArray());
+            pending = new ByteArrayOutputStream();
+            channel.force(false);
+            channel.close();
+            durable = appended;
+            channel = openSegment(++segment);
+            compacting = true;
+            return segment;
+        }
+    }
+
+    Future<?> compact(QuadTree<T> root, long number) {
+        return compactor.submit(() -> {
+            try {
+                SpatialSnapshot.write(root, snapshotPath(number), encoder);
+                for (long older : numbered(snapshotPrefix)) {
+                    if (older < number)
+                        Files.deleteIfExists(snapshotPath(older));
+                }
+                for (long older : numbered(segmentPrefix)) {
+                    if (older < number)
+                        Files.deleteIfExists(segmentPath(older));
+                }
+            } finally {
+                synchronized (lock) {
+                    compacting = false;
+                }
+            }
+            return null;
+        });
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("mutation log is closed");
+        if (failure != null)
+            throw new UncheckedIOException(failure);
+    }
+
+    public long getSegment() {
+        synchronized (lock) {
+            return segment;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Syncs what has been appended and waits for a running compaction to finish.
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                return;
+        }
+        if (syncer != null)
+            syncer.shutdown();
+        sync();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            closed = true;
+            if (channel != null)
+                channel.close();
+        }
+    }
+}
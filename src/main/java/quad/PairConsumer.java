@@ -0,0 +1,6 @@
+package quad;
+
+@FunctionalInterface
+public interface PairConsumer<A, B> {
+    void accept(double latitude, double longitude, A data, double otherLatitude, double otherLongitude, B otherData);
+}
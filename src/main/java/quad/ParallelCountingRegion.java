@@ -0,0 +1,46 @@
+package quad;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// The counterpart of CountingRegion for traversals split across a pool, whose tasks test the
+// region from several threads at once. Nodes and rejected points are counted as there, but a
+// leaf scan cannot be told apart from its neighbours' and so leaves are not counted.
+final class ParallelCountingRegion implements Region {
+    private final Region region;
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    ParallelCountingRegion(Region region) {
+        this.region = region;
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        nodesVisited.increment();
+        return region.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return region.contains(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public Overlap overlap(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        nodesVisited.increment();
+        return region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        boolean contains = region.contains(latitude, longitude);
+        if (!contains)
+            rejected.increment();
+        return contains;
+    }
+
+    void addTo(QueryStats stats) {
+        stats.nodesVisited += nodesVisited.sum();
+        stats.rejected += rejected.sum();
+    }
+}
@@ -1,5 +1,7 @@
 package quad;
 
+import java.util.Objects;
+
 public class Point {
 
     private final double latitude;
@@ -18,6 +20,19 @@ public class Point {
         return latitude;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Point point = (Point) o;
+        return Double.compare(point.latitude, latitude) == 0 && Double.compare(point.longitude, longitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(latitude, longitude);
+    }
+
     @Override
     public String toString() {
         return "Point{" +
@@ -0,0 +1,6 @@
+package quad;
+
+@FunctionalInterface
+public interface PointConsumer<T> {
+    void accept(double latitude, double longitude, T data);
+}
@@ -0,0 +1,276 @@
+package quad;
+
+import java.util.Arrays;
+
+// A polygon made of one or more rings combined by the even-odd rule, so a ring inside another is a
+// hole and rings apart from each other are separate shapes. The edges are indexed once, on a grid
+// laid over the polygon's bounds: every row keeps the edges spanning its latitudes, for the
+// crossing count of a point test, and every cell the edges passing through it, for telling whether
+// a rectangle is crossed by the boundary. Cells without edges are wholly inside or outside and
+// answer point tests without looking at an edge. The region is immutable and can be reused across
+// queries and threads.
+final class PolygonRegion implements Region {
+    private static final int maxGridSize = 256;
+    private static final int[] noEdges = new int[0];
+
+    private final double[] fromLatitudes;
+    private final double[] fromLongitudes;
+    private final double[] toLatitudes;
+    private final double[] toLongitudes;
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+    // Rectangles are widened by this much when tested against edges, so rounding can only make a
+    // rectangle crossing the boundary, never inside or outside of a polygon whose edge touches it.
+    private final double slack;
+    private final int rows;
+    private final int columns;
+    private final int[][] rowEdges;
+    private final int[][] cellEdges;
+    private final boolean[] cellInside;
+    // Summed area table of the cells holding edges, telling in constant time whether a range of
+    // cells has any boundary in it at all.
+    private final int[] edgeCells;
+
+    PolygonRegion(double[][] latitudes, double[][] longitudes) {
+        if (latitudes.length == 0 || latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("latitudes and longitudes must hold the same, non zero number of rings");
+        int edges = 0;
+        for (int ring = 0; ring < latitudes.length; ring++) {
+            if (latitudes[ring].length != longitudes[ring].length || latitudes[ring].length < 3)
+                throw new IllegalArgumentException("ring " + ring + " must have the same number of at least 3 latitudes and longitudes");
+            edges += latitudes[ring].length;
+        }
+        double[] fromLatitudes = new double[edges];
+        double[] fromLongitudes = new double[edges];
+        double[] toLatitudes = new double[edges];
+        double[] toLongitudes = new double[edges];
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        int edge = 0;
+        for (int ring = 0; ring < latitudes.length; ring++) {
+            int length = latitudes[ring].length;
+            for (int i = 0; i < length; i++) {
+                double latitude = latitudes[ring][i];
+                double longitude = longitudes[ring][i];
+                if (Double.isNaN(latitude) || Double.isInfinite(latitude) || Double.isNaN(longitude) || Double.isInfinite(longitude))
+                    throw new IllegalArgumentException("coordinates must be finite: " + latitude + ", " + longitude);
+                minLatitude = Math.min(minLatitude, latitude);
+                maxLatitude = Math.max(maxLatitude, latitude);
+                minLongitude = Math.min(minLongitude, longitude);
+                maxLongitude = Math.max(maxLongitude, longitude);
+                double nextLatitude = latitudes[ring][(i + 1) % length];
+                double nextLongitude = longitudes[ring][(i + 1) % length];
+                // Repeating the first vertex to close a ring leaves an empty edge, which is dropped.
+                if (latitude == nextLatitude && longitude == nextLongitude)
+                    continue;
+                fromLatitudes[edge] = latitude;
+                fromLongitudes[edge] = longitude;
+                toLatitudes[edge] = nextLatitude;
+                toLongitudes[edge] = nextLongitude;
+                edge++;
+            }
+        }
+        this.fromLatitudes = Arrays.copyOf(fromLatitudes, edge);
+        this.fromLongitudes = Arrays.copyOf(fromLongitudes, edge);
+        this.toLatitudes = Arrays.copyOf(toLatitudes, edge);
+        this.toLongitudes = Arrays.copyOf(toLongitudes, edge);
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+        this.slack = 4 * Math.ulp(Math.max(Math.max(Math.abs(minLatitude), Math.abs(maxLatitude)), Math.max(Math.abs(minLongitude), Math.abs(maxLongitude))));
+
+        int gridSize = Math.max(1, Math.min(maxGridSize, (int) Math.ceil(Math.sqrt(edge))));
+        this.rows = maxLatitude > minLatitude ? gridSize : 1;
+        this.columns = maxLongitude > minLongitude ? gridSize : 1;
+        this.rowEdges = new int[rows][];
+        this.cellEdges = new int[rows * columns][];
+        this.cellInside = new boolean[rows * columns];
+        this.edgeCells = new int[(rows + 1) * (columns + 1)];
+        index();
+    }
+
+    private void index() {
+        int edges = fromLatitudes.length;
+        // Cells are padded a little beyond the slack when edges are put in them, so that every point
+        // row() and column() map to a cell lies within it despite the rounding of either.
+        double padding = 1e-9 * Math.max((maxLatitude - minLatitude) / rows, (maxLongitude - minLongitude) / columns);
+        int[] rowSizes = new int[rows];
+        int[] cellSizes = new int[rows * columns];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int edge = 0; edge < edges; edge++) {
+                int minRow = row(Math.min(fromLatitudes[edge], toLatitudes[edge]));
+                int maxRow = row(Math.max(fromLatitudes[edge], toLatitudes[edge]));
+                int minColumn = column(Math.min(fromLongitudes[edge], toLongitudes[edge]));
+                int maxColumn = column(Math.max(fromLongitudes[edge], toLongitudes[edge]));
+                for (int row = minRow; row <= maxRow; row++) {
+                    if (pass == 0)
+                        rowSizes[row]++;
+                    else
+                        rowEdges[row][--rowSizes[row]] = edge;
+                    for (int column = minColumn; column <= maxColumn; column++) {
+                        int cell = row * columns + column;
+                        if (!crosses(edge, cellLatitude(row) - padding, cellLatitude(row + 1) + padding,
+                                cellLongitude(column) - padding, cellLongitude(column + 1) + padding))
+                            continue;
+                        if (pass == 0)
+                            cellSizes[cell]++;
+                        else
+                            cellEdges[cell][--cellSizes[cell]] = edge;
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int row = 0; row < rows; row++)
+                    rowEdges[row] = rowSizes[row] == 0 ? noEdges : new int[rowSizes[row]];
+                for (int cell = 0; cell < cellEdges.length; cell++)
+                    cellEdges[cell] = cellSizes[cell] == 0 ? noEdges : new int[cellSizes[cell]];
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                if (cellEdges[cell].length == 0)
+                    cellInside[cell] = crossings(row, (cellLatitude(row) + cellLatitude(row + 1)) / 2,
+                            (cellLongitude(column) + cellLongitude(column + 1)) / 2);
+                edgeCells[(row + 1) * (columns + 1) + column + 1] = (cellEdges[cell].length == 0 ? 0 : 1)
+                        + edgeCells[row * (columns + 1) + column + 1] + edgeCells[(row + 1) * (columns + 1) + column]
+                        - edgeCells[row * (columns + 1) + column];
+            }
+        }
+    }
+
+    private boolean hasEdges(int minRow, int maxRow, int minColumn, int maxColumn) {
+        int stride = columns + 1;
+        return edgeCells[(maxRow + 1) * stride + maxColumn + 1] - edgeCells[minRow * stride + maxColumn + 1]
+                - edgeCells[(maxRow + 1) * stride + minColumn] + edgeCells[minRow * stride + minColumn] > 0;
+    }
+
+    // The side between a row or column and the one before it.
+    private double cellLatitude(int row) {
+        return row == rows ? maxLatitude : minLatitude + row * (maxLatitude - minLatitude) / rows;
+    }
+
+    private double cellLongitude(int column) {
+        return column == columns ? maxLongitude : minLongitude + column * (maxLongitude - minLongitude) / columns;
+    }
+
+    private int row(double latitude) {
+        if (rows == 1)
+            return 0;
+        return Math.max(0, Math.min(rows - 1, (int) ((latitude - minLatitude) / (maxLatitude - minLatitude) * rows)));
+    }
+
+    private int column(double longitude) {
+        if (columns == 1)
+            return 0;
+        return Math.max(0, Math.min(columns - 1, (int) ((longitude - minLongitude) / (maxLongitude - minLongitude) * columns)));
+    }
+
+    // Whether the edge meets the rectangle widened by the slack, clipping the edge to it one axis
+    // at a time.
+    private boolean crosses(int edge, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        double[] interval = {0, 1};
+        return clip(fromLatitudes[edge], toLatitudes[edge], minLatitude - slack, maxLatitude + slack, interval)
+                && clip(fromLongitudes[edge], toLongitudes[edge], minLongitude - slack, maxLongitude + slack, interval);
+    }
+
+    private static boolean clip(double from, double to, double min, double max, double[] interval) {
+        double delta = to - from;
+        if (delta == 0)
+            return from >= min && from <= max;
+        double enter = (min - from) / delta;
+        double exit = (max - from) / delta;
+        interval[0] = Math.max(interval[0], Math.min(enter, exit));
+        interval[1] = Math.min(interval[1], Math.max(enter, exit));
+        return interval[0] <= interval[1];
+    }
+
+    // The even-odd crossing count of a ray from the point towards increasing longitudes, taken over
+    // the edges of the point's row only as no other edge spans its latitude.
+    private boolean crossings(int row, double latitude, double longitude) {
+        boolean inside = false;
+        for (int edge : rowEdges[row]) {
+            double fromLatitude = fromLatitudes[edge];
+            double toLatitude = toLatitudes[edge];
+            if ((fromLatitude > latitude) == (toLatitude > latitude))
+                continue;
+            double crossing = fromLongitudes[edge] + (latitude - fromLatitude) * (toLongitudes[edge] - fromLongitudes[edge]) / (toLatitude - fromLatitude);
+            if (longitude < crossing)
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    @Override
+    public Overlap overlap(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (minLatitude > this.maxLatitude || maxLatitude < this.minLatitude || minLongitude > this.maxLongitude || maxLongitude < this.minLongitude)
+            return Overlap.OUTSIDE;
+        boolean withinBounds = minLatitude >= this.minLatitude && maxLatitude <= this.maxLatitude
+                && minLongitude >= this.minLongitude && maxLongitude <= this.maxLongitude;
+        // A rectangle around the whole polygon holds every edge.
+        if (minLatitude <= this.minLatitude && maxLatitude >= this.maxLatitude && minLongitude <= this.minLongitude && maxLongitude >= this.maxLongitude)
+            return Overlap.CROSSING;
+        int minRow = row(Math.max(minLatitude, this.minLatitude));
+        int maxRow = row(Math.min(maxLatitude, this.maxLatitude));
+        int minColumn = column(Math.max(minLongitude, this.minLongitude));
+        int maxColumn = column(Math.min(maxLongitude, this.maxLongitude));
+        // Edges of the cells the rectangle covers whole are all but certain to be in it, and calling a
+        // rectangle crossing is never wrong, it only has the traversal look closer. That leaves the
+        // cells along the rectangle's sides to be tested edge by edge.
+        if (maxRow - minRow > 1 && maxColumn - minColumn > 1 && hasEdges(minRow + 1, maxRow - 1, minColumn + 1, maxColumn - 1))
+            return Overlap.CROSSING;
+        for (int row = minRow; row <= maxRow; row++) {
+            boolean side = row == minRow || row == maxRow;
+            for (int column = minColumn; column <= maxColumn; column = side || column == maxColumn ? column + 1 : maxColumn) {
+                for (int edge : cellEdges[row * columns + column]) {
+                    if (crosses(edge, minLatitude, maxLatitude, minLongitude, maxLongitude))
+                        return Overlap.CROSSING;
+                }
+            }
+        }
+        // Nothing of the boundary is in the rectangle, so all of it is on the same side as any one of
+        // its points, and a rectangle reaching past the polygon's bounds has points outside.
+        if (!withinBounds)
+            return Overlap.OUTSIDE;
+        return contains((minLatitude + maxLatitude) / 2, (minLongitude + maxLongitude) / 2) ? Overlap.INSIDE : Overlap.OUTSIDE;
+    }
+
+    @Override
+    public boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return overlap(minLatitude, maxLatitude, minLongitude, maxLongitude) != Overlap.OUTSIDE;
+    }
+
+    @Override
+    public boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return overlap(minLatitude, maxLatitude, minLongitude, maxLongitude) == Overlap.INSIDE;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (!(latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude))
+            return false;
+        int row = row(latitude);
+        int cell = row * columns + column(longitude);
+        if (cellEdges[cell].length == 0)
+            return cellInside[cell];
+        return crossings(row, latitude, longitude);
+    }
+
+    public int getEdges() {
+        return fromLatitudes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "PolygonRegion{" +
+                "edges=" + fromLatitudes.length +
+                ", bounds=" + Arrays.toString(new double[]{minLatitude, maxLatitude, minLongitude, maxLongitude}) +
+                ", grid=" + rows + "x" + columns +
+                '}';
+    }
+}
@@ -1,15 +1,55 @@
 package quad;
 
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
-public class QuadTree<P> {
-    private static final int maxLength = 20;
+public class QuadTree<P> implements Iterable<QuadNode<P>> {
+    public static final int defaultLeafCapacity = 8;
+    public static final double defaultMinCellSize = 1e-4;
+    public static final int defaultMergeThreshold = defaultLeafCapacity / 2;
+    private static final int joined = 0;
+    private static final int splitLeft = 1;
+    private static final int splitRight = 2;
+    private static final double[] emptyCoordinates = new double[0];
+    private static final Object[] emptyData = new Object[0];
     private final Point topLeft;
     private final Point bottomRight;
-    private final Set<QuadNode<P>> nodes;
+    private double[] latitudes = emptyCoordinates;
+    private double[] longitudes = emptyCoordinates;
+    private Object[] data = emptyData;
+    private int size;
+    // Aggregates of every point below this node: coordinate sums and the extent they span, which is
+    // empty (min above max) while there are none.
+    private double latitudeSum;
+    private double longitudeSum;
+    private double minLatitude = Double.POSITIVE_INFINITY;
+    private double maxLatitude = Double.NEGATIVE_INFINITY;
+    private double minLongitude = Double.POSITIVE_INFINITY;
+    private double maxLongitude = Double.NEGATIVE_INFINITY;
     private final int currentLength;
+    private final int leafCapacity;
+    private final double minCellSize;
+    private final int mergeThreshold;
     boolean isLeaf = true;
     private QuadTree<P> topLeftTree;
     private QuadTree<P> topRightTree;
@@ -17,96 +57,327 @@ public class QuadTree<P> {
     private QuadTree<P> bottomRightTree;
 
     public QuadTree(Point topLeft, Point bottomRight, int currentLength) {
+        this(topLeft, bottomRight, currentLength, defaultLeafCapacity, defaultMinCellSize, defaultMergeThreshold);
+    }
+
+    public QuadTree(Point topLeft, Point bottomRight, int currentLength, int leafCapacity, double minCellSize, int mergeThreshold) {
+        if (leafCapacity < 1)
+            throw new IllegalArgumentException("leafCapacity must be at least 1: " + leafCapacity);
+        if (!(minCellSize > 0) || Double.isInfinite(minCellSize))
+            throw new IllegalArgumentException("minCellSize must be positive and finite: " + minCellSize);
+        if (mergeThreshold < 0 || mergeThreshold > leafCapacity)
+            throw new IllegalArgumentException("mergeThreshold must be between 0 and leafCapacity: " + mergeThreshold);
         this.topLeft = topLeft;
         this.bottomRight = bottomRight;
         this.currentLength = currentLength;
-        this.nodes = new HashSet<>();
+        this.leafCapacity = leafCapacity;
+        this.minCellSize = minCellSize;
+        this.mergeThreshold = mergeThreshold;
     }
 
+    private QuadTree(QuadTree<P> other) {
+        this.topLeft = other.topLeft;
+        this.bottomRight = other.bottomRight;
+        this.currentLength = other.currentLength;
+        this.leafCapacity = other.leafCapacity;
+        this.minCellSize = other.minCellSize;
+        this.mergeThreshold = other.mergeThreshold;
+        this.latitudes = other.latitudes;
+        this.longitudes = other.longitudes;
+        this.data = other.data;
+        this.size = other.size;
+        this.latitudeSum = other.latitudeSum;
+        this.longitudeSum = other.longitudeSum;
+        this.minLatitude = other.minLatitude;
+        this.maxLatitude = other.maxLatitude;
+        this.minLongitude = other.minLongitude;
+        this.maxLongitude = other.maxLongitude;
+        this.isLeaf = other.isLeaf;
+        this.topLeftTree = other.topLeftTree;
+        this.topRightTree = other.topRightTree;
+        this.bottomLeftTree = other.bottomLeftTree;
+        this.bottomRightTree = other.bottomRightTree;
+    }
+
+    // Splitting also stops at the depth of the Morton keys, below which points at the same position
+    // could never be told apart, so inserts and bulk loads end up with the same leaves.
     private boolean shouldSubDivide() {
-        return currentLength < maxLength;
+        return size > leafCapacity
+                && currentLength < MortonOrder.levels
+                && Math.abs(topLeft.getLatitude() - bottomRight.getLatitude()) > minCellSize
+                && Math.abs(bottomRight.getLongitude() - topLeft.getLongitude()) > minCellSize;
     }
 
-    public void insert(Point point, P data) {
-        QuadTree<P> curr = this;
-        QuadNode<P> quadNode = new QuadNode<>(point, data);
-        while (!curr.isLeaf) {
-            curr.nodes.add(quadNode);
-            if (point.getLongitude() < (curr.topLeft.getLongitude() + curr.bottomRight.getLongitude()) / 2) {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomLeftTree;
-                } else {
-                    curr = curr.topLeftTree;
-                }
+    private QuadTree<P> child(Point topLeft, Point bottomRight) {
+        return new QuadTree<>(topLeft, bottomRight, currentLength + 1, leafCapacity, minCellSize, mergeThreshold);
+    }
 
+    private QuadTree<P> childFor(double latitude, double longitude) {
+        if (longitude < (topLeft.getLongitude() + bottomRight.getLongitude()) / 2) {
+            if (latitude < (topLeft.getLatitude() + bottomRight.getLatitude()) / 2) {
+                return bottomLeftTree;
             } else {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomRightTree;
+                return topLeftTree;
+            }
 
-                } else {
-                    curr = curr.topRightTree;
-                }
+        } else {
+            if (latitude < (topLeft.getLatitude() + bottomRight.getLatitude()) / 2) {
+                return bottomRightTree;
+            } else {
+                return topRightTree;
             }
         }
+    }
 
-        curr.nodes.add(quadNode);
+    public void insert(Point point, P data) {
+        QuadTree<P> curr = this;
+        while (!curr.isLeaf) {
+            curr.size++;
+            curr.include(point.getLatitude(), point.getLongitude());
+            curr = curr.childFor(point.getLatitude(), point.getLongitude());
+        }
+
+        curr.addToNode(point.getLatitude(), point.getLongitude(), data);
         if (curr.shouldSubDivide()) {
             curr.subDivide();
         }
     }
 
-    private void subDivide() {
+    private void createChildren() {
         double midX = (topLeft.getLongitude() + bottomRight.getLongitude()) / 2;
         double midY = (topLeft.getLatitude() + bottomRight.getLatitude()) / 2;
         isLeaf = false;
-        topLeftTree = new QuadTree<>(topLeft, new Point(midY, midX), currentLength + 1);
-        bottomRightTree = new QuadTree<>(new Point(midY, midX), bottomRight, currentLength + 1);
-        topRightTree = new QuadTree<>(new Point(topLeft.getLatitude(), midX), new Point(midY, bottomRight.getLongitude()), currentLength + 1);
-        bottomLeftTree = new QuadTree<>(new Point(midY, topLeft.getLongitude()), new Point(bottomRight.getLatitude(), midX), currentLength + 1);
-        QuadTree<P> curr = this;
-        for (QuadNode<P> node : nodes) {
-            Point point = node.getPoint();
-            if (point.getLongitude() < (curr.topLeft.getLongitude() + curr.bottomRight.getLongitude()) / 2) {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr.bottomLeftTree.addToNode(node);
-                } else {
-                    curr.topLeftTree.addToNode(node);
-                }
+        topLeftTree = child(topLeft, new Point(midY, midX));
+        bottomRightTree = child(new Point(midY, midX), bottomRight);
+        topRightTree = child(new Point(topLeft.getLatitude(), midX), new Point(midY, bottomRight.getLongitude()));
+        bottomLeftTree = child(new Point(midY, topLeft.getLongitude()), new Point(bottomRight.getLatitude(), midX));
+    }
 
-            } else {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr.bottomRightTree.addToNode(node);
-                } else {
-                    curr.topRightTree.addToNode(node);
-                }
-            }
+    private void subDivide() {
+        createChildren();
+        for (int i = 0; i < size; i++) {
+            childFor(latitudes[i], longitudes[i]).addToNode(latitudes[i], longitudes[i], data[i]);
         }
+        latitudes = emptyCoordinates;
+        longitudes = emptyCoordinates;
+        data = emptyData;
+        for (QuadTree<P> child : children()) {
+            if (child.shouldSubDivide())
+                child.subDivide();
+        }
+    }
+
+    boolean covers(double latitude, double longitude) {
+        return latitude >= bottomRight.getLatitude()
+                && latitude <= topLeft.getLatitude()
+                && longitude >= topLeft.getLongitude()
+                && longitude <= bottomRight.getLongitude();
     }
 
-    private void addToNode(QuadNode<P> data) {
-        nodes.add(data);
+    // Doubles the bounds towards the given point; the old bounds become one quadrant of the new ones.
+    static Point[] grownBounds(Point topLeft, Point bottomRight, double latitude, double longitude) {
+        double height = topLeft.getLatitude() - bottomRight.getLatitude();
+        double width = bottomRight.getLongitude() - topLeft.getLongitude();
+        double top = topLeft.getLatitude();
+        double bottom = bottomRight.getLatitude();
+        double left = topLeft.getLongitude();
+        double right = bottomRight.getLongitude();
+        if (latitude < bottom)
+            bottom -= height;
+        else
+            top += height;
+        if (longitude < left)
+            left -= width;
+        else
+            right += width;
+        return new Point[]{new Point(top, left), new Point(bottom, right)};
     }
 
+    // Returns a root twice the size of this one that covers the given point direction, keeping this
+    // tree as one of its quadrants. Falls back to rebuilding when the new midlines would not land
+    // exactly on the old edges.
+    QuadTree<P> grow(double latitude, double longitude) {
+        Point[] bounds = grownBounds(topLeft, bottomRight, latitude, longitude);
+        QuadTree<P> root = new QuadTree<>(bounds[0], bounds[1], currentLength - 1, leafCapacity, minCellSize, mergeThreshold);
+        root.createChildren();
+        QuadTree<P> slot = root.childFor((topLeft.getLatitude() + bottomRight.getLatitude()) / 2, (topLeft.getLongitude() + bottomRight.getLongitude()) / 2);
+        if (slot.topLeft.equals(topLeft) && slot.bottomRight.equals(bottomRight)) {
+            root.replaceChild(slot, this);
+            root.size = size;
+            root.aggregate();
+            return root;
+        }
+        double[] allLatitudes = new double[size];
+        double[] allLongitudes = new double[size];
+        Object[] allData = new Object[size];
+        int[] count = new int[1];
+        forEach((nodeLatitude, nodeLongitude, value) -> {
+            allLatitudes[count[0]] = nodeLatitude;
+            allLongitudes[count[0]] = nodeLongitude;
+            allData[count[0]++] = value;
+        });
+        return bulkLoad(bounds[0], bounds[1], leafCapacity, minCellSize, mergeThreshold, allLatitudes, allLongitudes, allData);
+    }
 
-    public QuadTree<P> search(Point point) {
-        QuadTree<P> curr = this;
-        while (!curr.isLeaf) {
+    static <P> QuadTree<P> bulkLoad(Point topLeft, Point bottomRight, int leafCapacity, double minCellSize, int mergeThreshold,
+                                    double[] latitudes, double[] longitudes, Object[] data) {
+        return bulkLoad(topLeft, bottomRight, leafCapacity, minCellSize, mergeThreshold, latitudes, longitudes, data, null, Integer.MAX_VALUE);
+    }
 
-            if (point.getLongitude() < (curr.topLeft.getLongitude() + curr.bottomRight.getLongitude()) / 2) {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomLeftTree;
-                } else {
-                    curr = curr.topLeftTree;
-                }
+    static <P> QuadTree<P> bulkLoad(Point topLeft, Point bottomRight, int leafCapacity, double minCellSize, int mergeThreshold,
+                                    double[] latitudes, double[] longitudes, Object[] data, ForkJoinPool pool, int parallelThreshold) {
+        if (latitudes.length != longitudes.length || latitudes.length != data.length)
+            throw new IllegalArgumentException("latitudes, longitudes and data must have the same length");
+        int n = latitudes.length;
+        boolean parallel = pool != null && n >= parallelThreshold;
+        MortonOrder.Encoder encoder = MortonOrder.encoder(topLeft, bottomRight);
+        long[] keys = new long[n];
+        forEachIndex(n, parallel ? pool : null, i -> keys[i] = encoder.key(latitudes[i], longitudes[i]));
+        int[] order = MortonOrder.sort(keys);
+        long[] sortedKeys = new long[n];
+        double[] sortedLatitudes = new double[n];
+        double[] sortedLongitudes = new double[n];
+        Object[] sortedData = new Object[n];
+        forEachIndex(n, parallel ? pool : null, i -> {
+            sortedKeys[i] = keys[order[i]];
+            sortedLatitudes[i] = latitudes[order[i]];
+            sortedLongitudes[i] = longitudes[order[i]];
+            sortedData[i] = data[order[i]];
+        });
+        QuadTree<P> root = new QuadTree<>(topLeft, bottomRight, 0, leafCapacity, minCellSize, mergeThreshold);
+        if (parallel)
+            pool.invoke(ForkJoinTask.adapt(() -> root.build(sortedKeys, sortedLatitudes, sortedLongitudes, sortedData, 0, n, parallelThreshold)));
+        else
+            root.build(sortedKeys, sortedLatitudes, sortedLongitudes, sortedData, 0, n, Integer.MAX_VALUE);
+        return root;
+    }
 
-            } else {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomRightTree;
+    private static void forEachIndex(int n, ForkJoinPool pool, IntConsumer action) {
+        if (pool == null)
+            IntStream.range(0, n).forEach(action);
+        else
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(action)).join();
+    }
 
-                } else {
-                    curr = curr.topRightTree;
-                }
+    private void build(long[] keys, double[] latitudes, double[] longitudes, Object[] data, int from, int to, int parallelThreshold) {
+        size = to - from;
+        if (!shouldSubDivide()) {
+            if (size > 0) {
+                this.latitudes = Arrays.copyOfRange(latitudes, from, to);
+                this.longitudes = Arrays.copyOfRange(longitudes, from, to);
+                this.data = Arrays.copyOfRange(data, from, to);
             }
+            aggregate();
+            return;
+        }
+        createChildren();
+        int bottomRightFrom = quadrantStart(keys, from, to, currentLength, MortonOrder.bottomRight);
+        int topLeftFrom = quadrantStart(keys, bottomRightFrom, to, currentLength, MortonOrder.topLeft);
+        int topRightFrom = quadrantStart(keys, topLeftFrom, to, currentLength, MortonOrder.topRight);
+        if (size >= parallelThreshold) {
+            ForkJoinTask.invokeAll(
+                    ForkJoinTask.adapt(() -> bottomLeftTree.build(keys, latitudes, longitudes, data, from, bottomRightFrom, parallelThreshold)),
+                    ForkJoinTask.adapt(() -> bottomRightTree.build(keys, latitudes, longitudes, data, bottomRightFrom, topLeftFrom, parallelThreshold)),
+                    ForkJoinTask.adapt(() -> topLeftTree.build(keys, latitudes, longitudes, data, topLeftFrom, topRightFrom, parallelThreshold)),
+                    ForkJoinTask.adapt(() -> topRightTree.build(keys, latitudes, longitudes, data, topRightFrom, to, parallelThreshold)));
+        } else {
+            bottomLeftTree.build(keys, latitudes, longitudes, data, from, bottomRightFrom, parallelThreshold);
+            bottomRightTree.build(keys, latitudes, longitudes, data, bottomRightFrom, topLeftFrom, parallelThreshold);
+            topLeftTree.build(keys, latitudes, longitudes, data, topLeftFrom, topRightFrom, parallelThreshold);
+            topRightTree.build(keys, latitudes, longitudes, data, topRightFrom, to, parallelThreshold);
+        }
+        aggregate();
+    }
+
+    static int quadrantStart(long[] keys, int from, int to, int level, int quadrant) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (MortonOrder.quadrant(keys[mid], level) < quadrant)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private void addToNode(double latitude, double longitude, Object value) {
+        if (size == latitudes.length) {
+            int capacity = latitudes.length <= leafCapacity
+                    ? Math.min(Math.max(4, latitudes.length * 2), leafCapacity + 1)
+                    : latitudes.length * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            data = Arrays.copyOf(data, capacity);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        data[size] = value;
+        size++;
+        include(latitude, longitude);
+    }
+
+    private void include(double latitude, double longitude) {
+        latitudeSum += latitude;
+        longitudeSum += longitude;
+        minLatitude = Math.min(minLatitude, latitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+    }
+
+    // Recomputes the aggregates of a leaf from its points and of an inner node from its children.
+    // Removals always recompute rather than subtract, so the sums do not drift.
+    private void aggregate() {
+        latitudeSum = 0;
+        longitudeSum = 0;
+        minLatitude = Double.POSITIVE_INFINITY;
+        maxLatitude = Double.NEGATIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        maxLongitude = Double.NEGATIVE_INFINITY;
+        if (isLeaf) {
+            for (int i = 0; i < size; i++)
+                include(latitudes[i], longitudes[i]);
+            return;
+        }
+        for (QuadTree<P> child : children()) {
+            latitudeSum += child.latitudeSum;
+            longitudeSum += child.longitudeSum;
+            minLatitude = Math.min(minLatitude, child.minLatitude);
+            maxLatitude = Math.max(maxLatitude, child.maxLatitude);
+            minLongitude = Math.min(minLongitude, child.minLongitude);
+            maxLongitude = Math.max(maxLongitude, child.maxLongitude);
+        }
+    }
+
+    private int indexOf(double latitude, double longitude, Object value) {
+        for (int i = 0; i < size; i++) {
+            if (latitudes[i] == latitude && longitudes[i] == longitude && Objects.equals(data[i], value))
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        int last = size - 1;
+        latitudes[index] = latitudes[last];
+        longitudes[index] = longitudes[last];
+        data[index] = data[last];
+        data[last] = null;
+        size = last;
+        aggregate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private QuadTree<P>[] children() {
+        return (QuadTree<P>[]) new QuadTree<?>[]{topLeftTree, topRightTree, bottomLeftTree, bottomRightTree};
+    }
+
+    public QuadTree<P> search(Point point) {
+        QuadTree<P> curr = this;
+        while (!curr.isLeaf) {
+            curr = curr.childFor(point.getLatitude(), point.getLongitude());
         }
         return curr;
     }
@@ -115,92 +386,714 @@ public class QuadTree<P> {
         if (getSize() == 0)
             return Collections.emptySet();
         Set<QuadNode<P>> nearByNode = new HashSet<>();
+        rangeSearch(point, range, (latitude, longitude, data) -> nearByNode.add(new QuadNode<>(latitude, longitude, data)));
+        return nearByNode;
+    }
+
+    public void rangeSearch(Point point, double range, PointConsumer<P> consumer) {
+        forEachLeaf(Region.box(point.getLatitude(), point.getLongitude(), range), leaf -> leaf.forEach(consumer));
+    }
 
+    // Locates the leaf of every query point in one shared descent: the queries are ordered by their
+    // Morton key, so the ones falling into the same quadrant form a contiguous run at every level.
+    QuadTree<P>[] search(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("latitudes and longitudes must have the same length");
+        int n = latitudes.length;
+        MortonOrder.Encoder encoder = MortonOrder.encoder(topLeft, bottomRight);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = encoder.key(latitudes[i], longitudes[i]);
+        int[] order = MortonOrder.sort(keys);
+        long[] sortedKeys = new long[n];
+        for (int i = 0; i < n; i++)
+            sortedKeys[i] = keys[order[i]];
+        QuadTree<P>[] answer = newTreeArray(n);
+        search(sortedKeys, order, latitudes, longitudes, 0, n, 0, answer);
+        return answer;
+    }
+
+    private void search(long[] keys, int[] order, double[] latitudes, double[] longitudes, int from, int to, int level, QuadTree<P>[] answer) {
+        if (from == to)
+            return;
         if (isLeaf) {
-            return nodes;
+            for (int i = from; i < to; i++)
+                answer[order[i]] = this;
+            return;
+        }
+        if (level >= MortonOrder.levels) {
+            for (int i = from; i < to; i++)
+                answer[order[i]] = search(new Point(latitudes[order[i]], longitudes[order[i]]));
+            return;
+        }
+        int bottomRightFrom = quadrantStart(keys, from, to, level, MortonOrder.bottomRight);
+        int topLeftFrom = quadrantStart(keys, bottomRightFrom, to, level, MortonOrder.topLeft);
+        int topRightFrom = quadrantStart(keys, topLeftFrom, to, level, MortonOrder.topRight);
+        bottomLeftTree.search(keys, order, latitudes, longitudes, from, bottomRightFrom, level + 1, answer);
+        bottomRightTree.search(keys, order, latitudes, longitudes, bottomRightFrom, topLeftFrom, level + 1, answer);
+        topLeftTree.search(keys, order, latitudes, longitudes, topLeftFrom, topRightFrom, level + 1, answer);
+        topRightTree.search(keys, order, latitudes, longitudes, topRightFrom, to, level + 1, answer);
+    }
+
+    // Runs every query in a single walk: a quadrant is visited once for all queries that reach it,
+    // carrying the list of queries still interested in it down to its children.
+    void rangeSearch(Region[] regions, double[] latitudes, double[] longitudes, boolean coarse, BatchConsumer<P> consumer) {
+        int n = regions.length;
+        MortonOrder.Encoder encoder = MortonOrder.encoder(topLeft, bottomRight);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = encoder.key(latitudes[i], longitudes[i]);
+        int[] order = MortonOrder.sort(keys);
+        rangeSearch(regions, coarse, order, n, new ArrayList<>(), 0, consumer,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    private void rangeSearch(Region[] regions, boolean coarse, int[] active, int count, List<int[]> scratch, int level, BatchConsumer<P> consumer,
+                             double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (size == 0)
+            return;
+        if (scratch.size() <= level)
+            scratch.add(new int[regions.length]);
+        int[] remaining = scratch.get(level);
+        int remainingCount = 0;
+        for (int i = 0; i < count; i++) {
+            int query = active[i];
+            Region region = regions[query];
+            if (!region.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))
+                continue;
+            if (!coarse && region.contains(minLatitude, maxLatitude, minLongitude, maxLongitude)) {
+                forEach((latitude, longitude, data) -> consumer.accept(query, latitude, longitude, data));
+                continue;
+            }
+            remaining[remainingCount++] = query;
+        }
+        if (remainingCount == 0)
+            return;
+        if (isLeaf) {
+            for (int q = 0; q < remainingCount; q++) {
+                int query = remaining[q];
+                Region region = regions[query];
+                for (int i = 0; i < size; i++) {
+                    if (coarse || region.contains(latitudes[i], longitudes[i]))
+                        consumer.accept(query, latitudes[i], longitudes[i], dataAt(i));
+                }
+            }
+            return;
         }
 
         double midLatitude = (topLeft.getLatitude() + bottomRight.getLatitude()) / 2;
         double midLongitude = (topLeft.getLongitude() + bottomRight.getLongitude()) / 2;
-        if (point.getLongitude() < midLongitude) {
-            if (point.getLatitude() < midLatitude) {
-                nearByNode.addAll(bottomLeftTree.rangeSearch(point, range));
-                if (midLatitude - point.getLatitude() < range && topLeftTree.getSize() > 0)
-                    nearByNode.addAll(topLeftTree.rangeSearch(point, range));
-                if (midLongitude - point.getLongitude() < range && bottomRightTree.getSize() > 0)
-                    nearByNode.addAll(bottomRightTree.rangeSearch(point, range));
-                if (midLatitude - point.getLatitude() < range && midLongitude - point.getLongitude() < range && topRightTree.getSize() > 0)
-                    nearByNode.addAll(topRightTree.rangeSearch(point, range));
+        topLeftTree.rangeSearch(regions, coarse, remaining, remainingCount, scratch, level + 1, consumer, midLatitude, maxLatitude, minLongitude, midLongitude);
+        topRightTree.rangeSearch(regions, coarse, remaining, remainingCount, scratch, level + 1, consumer, midLatitude, maxLatitude, midLongitude, maxLongitude);
+        bottomLeftTree.rangeSearch(regions, coarse, remaining, remainingCount, scratch, level + 1, consumer, minLatitude, midLatitude, minLongitude, midLongitude);
+        bottomRightTree.rangeSearch(regions, coarse, remaining, remainingCount, scratch, level + 1, consumer, minLatitude, midLatitude, midLongitude, maxLongitude);
+    }
 
-            } else {
-                nearByNode.addAll(topLeftTree.rangeSearch(point, range));
-                if (point.getLatitude() - midLatitude < range && bottomLeftTree.getSize() > 0)
-                    nearByNode.addAll(bottomLeftTree.rangeSearch(point, range));
-                if (midLongitude - point.getLongitude() < range && topRightTree.getSize() > 0)
-                    nearByNode.addAll(topRightTree.rangeSearch(point, range));
-                if (point.getLatitude() - midLatitude < range && midLongitude - point.getLongitude() < range && bottomRightTree.getSize() > 0)
-                    nearByNode.addAll(bottomRightTree.rangeSearch(point, range));
+    public void rangeSearch(Region region, PointConsumer<P> consumer) {
+        rangeSearch(region, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    // The root's bounds are left open so that points stored outside of them are still reached.
+    private void rangeSearch(Region region, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, PointConsumer<P> consumer) {
+        if (size == 0)
+            return;
+        Region.Overlap overlap = region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        if (overlap == Region.Overlap.OUTSIDE)
+            return;
+        if (overlap == Region.Overlap.INSIDE) {
+            forEach(consumer);
+            return;
+        }
+        if (isLeaf) {
+            for (int i = 0; i < size; i++) {
+                if (region.contains(latitudes[i], longitudes[i]))
+                    consumer.accept(latitudes[i], longitudes[i], dataAt(i));
             }
+            return;
+        }
 
-        } else {
-            if (point.getLatitude() < midLatitude) {
-                nearByNode.addAll(bottomRightTree.rangeSearch(point, range));
-                if (midLatitude - point.getLatitude() < range && topRightTree.getSize() > 0)
-                    nearByNode.addAll(topRightTree.rangeSearch(point, range));
-                if (point.getLongitude() - midLongitude < range && bottomLeftTree.getSize() > 0)
-                    nearByNode.addAll(bottomLeftTree.rangeSearch(point, range));
-                if (midLatitude - point.getLatitude() < range && point.getLongitude() - midLongitude < range && topLeftTree.getSize() > 0)
-                    nearByNode.addAll(topLeftTree.rangeSearch(point, range));
+        double midLatitude = (topLeft.getLatitude() + bottomRight.getLatitude()) / 2;
+        double midLongitude = (topLeft.getLongitude() + bottomRight.getLongitude()) / 2;
+        topLeftTree.rangeSearch(region, midLatitude, maxLatitude, minLongitude, midLongitude, consumer);
+        topRightTree.rangeSearch(region, midLatitude, maxLatitude, midLongitude, maxLongitude, consumer);
+        bottomLeftTree.rangeSearch(region, minLatitude, midLatitude, minLongitude, midLongitude, consumer);
+        bottomRightTree.rangeSearch(region, minLatitude, midLatitude, midLongitude, maxLongitude, consumer);
+    }
 
-            } else {
-                nearByNode.addAll(topRightTree.rangeSearch(point, range));
-                if (point.getLatitude() - midLatitude < range && bottomRightTree.getSize() > 0)
-                    nearByNode.addAll(bottomRightTree.rangeSearch(point, range));
-                if (point.getLongitude() - midLongitude < range && topLeftTree.getSize() > 0)
-                    nearByNode.addAll(topLeftTree.rangeSearch(point, range));
-                if (point.getLatitude() - midLatitude < range && point.getLongitude() - midLongitude < range && bottomLeftTree.getSize() > 0)
-                    nearByNode.addAll(bottomLeftTree.rangeSearch(point, range));
+    void forEachLeaf(Region region, Consumer<QuadTree<P>> action) {
+        forEachLeaf(region, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, action);
+    }
+
+    private void forEachLeaf(Region region, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, Consumer<QuadTree<P>> action) {
+        if (size == 0 || !region.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))
+            return;
+        if (isLeaf) {
+            action.accept(this);
+            return;
+        }
+
+        double midLatitude = (topLeft.getLatitude() + bottomRight.getLatitude()) / 2;
+        double midLongitude = (topLeft.getLongitude() + bottomRight.getLongitude()) / 2;
+        topLeftTree.forEachLeaf(region, midLatitude, maxLatitude, minLongitude, midLongitude, action);
+        topRightTree.forEachLeaf(region, midLatitude, maxLatitude, midLongitude, maxLongitude, action);
+        bottomLeftTree.forEachLeaf(region, minLatitude, midLatitude, minLongitude, midLongitude, action);
+        bottomRightTree.forEachLeaf(region, minLatitude, midLatitude, midLongitude, maxLongitude, action);
+    }
+
+    // Subtrees whose extent the region contains are taken whole from their aggregates, so only the
+    // leaves along the region's edge look at single points.
+    void aggregate(Region region, Aggregate aggregate) {
+        if (size == 0)
+            return;
+        Region.Overlap overlap = region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        if (overlap == Region.Overlap.OUTSIDE)
+            return;
+        if (overlap == Region.Overlap.INSIDE) {
+            aggregate.add(size, latitudeSum, longitudeSum);
+            return;
+        }
+        if (isLeaf) {
+            for (int i = 0; i < size; i++) {
+                if (region.contains(latitudes[i], longitudes[i]))
+                    aggregate.add(latitudes[i], longitudes[i]);
             }
+            return;
         }
-        return nearByNode;
+        for (QuadTree<P> child : children())
+            child.aggregate(region, aggregate);
     }
 
-    public void remove(QuadNode<P> node) {
-        Point point = node.getPoint();
-        QuadTree<P> curr = this;
-        while (!curr.isLeaf) {
-            if (!curr.nodes.contains(node))
+    // A subtree whose extent falls within a single cell is counted there as a whole.
+    void density(DensityGrid grid) {
+        if (size == 0 || !grid.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))
+            return;
+        int row = grid.row(maxLatitude);
+        int column = grid.column(minLongitude);
+        if (row >= 0 && column >= 0 && row == grid.row(minLatitude) && column == grid.column(maxLongitude)) {
+            grid.add(row, column, size);
+            return;
+        }
+        if (isLeaf) {
+            for (int i = 0; i < size; i++)
+                grid.add(latitudes[i], longitudes[i]);
+            return;
+        }
+        for (QuadTree<P> child : children())
+            child.density(grid);
+    }
+
+    // Every pair of points at most distance apart, one from each tree. Both trees are walked at once
+    // on the extents of their subtrees: pairs of subtrees further apart than distance are pruned,
+    // pairs lying wholly within it are matched without testing a single distance, and otherwise the
+    // wider of the two is split.
+    static <A, B> void join(QuadTree<A> left, QuadTree<B> right, double distance, PairConsumer<A, B> consumer) {
+        joinWithin(left, right, distance * distance, consumer);
+    }
+
+    // Consumers run on the pool's worker threads and must be thread safe.
+    static <A, B> void join(QuadTree<A> left, QuadTree<B> right, double distance, PairConsumer<A, B> consumer, ForkJoinPool pool, int parallelThreshold) {
+        pool.invoke(new JoinTask<>(left, right, distance * distance, consumer, parallelThreshold));
+    }
+
+    private static <A, B> void joinWithin(QuadTree<A> left, QuadTree<B> right, double distanceSquared, PairConsumer<A, B> consumer) {
+        int step = joinStep(left, right, distanceSquared, consumer);
+        if (step == splitLeft) {
+            for (QuadTree<A> child : left.children())
+                joinWithin(child, right, distanceSquared, consumer);
+        } else if (step == splitRight) {
+            for (QuadTree<B> child : right.children())
+                joinWithin(left, child, distanceSquared, consumer);
+        }
+    }
+
+    // Matches what can be matched without going further down, or tells which side to split.
+    private static <A, B> int joinStep(QuadTree<A> left, QuadTree<B> right, double distanceSquared, PairConsumer<A, B> consumer) {
+        if (left.size == 0 || right.size == 0)
+            return joined;
+        double dLat = Math.max(0, Math.max(left.minLatitude - right.maxLatitude, right.minLatitude - left.maxLatitude));
+        double dLong = Math.max(0, Math.max(left.minLongitude - right.maxLongitude, right.minLongitude - left.maxLongitude));
+        if (dLat * dLat + dLong * dLong > distanceSquared)
+            return joined;
+        dLat = Math.max(left.maxLatitude - right.minLatitude, right.maxLatitude - left.minLatitude);
+        dLong = Math.max(left.maxLongitude - right.minLongitude, right.maxLongitude - left.minLongitude);
+        if (dLat * dLat + dLong * dLong <= distanceSquared) {
+            left.forEach((latitude, longitude, data) -> right.forEach((otherLatitude, otherLongitude, otherData) ->
+                    consumer.accept(latitude, longitude, data, otherLatitude, otherLongitude, otherData)));
+            return joined;
+        }
+        if (left.isLeaf && right.isLeaf) {
+            for (int i = 0; i < left.size; i++) {
+                for (int j = 0; j < right.size; j++) {
+                    dLat = right.latitudes[j] - left.latitudes[i];
+                    dLong = right.longitudes[j] - left.longitudes[i];
+                    if (dLat * dLat + dLong * dLong <= distanceSquared)
+                        consumer.accept(left.latitudes[i], left.longitudes[i], left.dataAt(i), right.latitudes[j], right.longitudes[j], right.dataAt(j));
+                }
+            }
+            return joined;
+        }
+        return right.isLeaf || !left.isLeaf && left.span() >= right.span() ? splitLeft : splitRight;
+    }
+
+    private double span() {
+        return Math.max(maxLatitude - minLatitude, maxLongitude - minLongitude);
+    }
+
+    List<QuadNode<P>> rangeSearch(Region region, boolean coarse, ForkJoinPool pool, int parallelThreshold) {
+        return pool.invoke(new RangeSearchTask<>(this, region, coarse, false, parallelThreshold,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+    }
+
+    // Consumers run on the pool's worker threads and must be thread safe.
+    void forEach(PointConsumer<P> consumer, ForkJoinPool pool, int parallelThreshold) {
+        pool.invoke(new ForEachTask<>(this, consumer, parallelThreshold));
+    }
+
+    public void forEach(PointConsumer<P> consumer) {
+        if (isLeaf) {
+            for (int i = 0; i < size; i++)
+                consumer.accept(latitudes[i], longitudes[i], dataAt(i));
+            return;
+        }
+        topLeftTree.forEach(consumer);
+        topRightTree.forEach(consumer);
+        bottomLeftTree.forEach(consumer);
+        bottomRightTree.forEach(consumer);
+    }
+
+    public List<QuadNode<P>> nearest(Point point, int k, double maxDistance) {
+        if (k <= 0 || size == 0)
+            return Collections.emptyList();
+        double latitude = point.getLatitude();
+        double longitude = point.getLongitude();
+        double maxDistanceSquared = maxDistance * maxDistance;
+        PriorityQueue<Neighbour<P>> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distanceSquared, a.distanceSquared));
+        PriorityQueue<Neighbour<P>> pending = new PriorityQueue<>((a, b) -> Double.compare(a.distanceSquared, b.distanceSquared));
+        pending.add(new Neighbour<>(minDistanceSquared(latitude, longitude), this, -1));
+        while (!pending.isEmpty()) {
+            Neighbour<P> next = pending.poll();
+            if (best.size() == k && next.distanceSquared >= best.peek().distanceSquared)
+                break;
+            QuadTree<P> tree = next.tree;
+            if (tree.isLeaf) {
+                for (int i = 0; i < tree.size; i++) {
+                    double dLat = tree.latitudes[i] - latitude;
+                    double dLong = tree.longitudes[i] - longitude;
+                    double distanceSquared = dLat * dLat + dLong * dLong;
+                    if (distanceSquared > maxDistanceSquared)
+                        continue;
+                    if (best.size() < k) {
+                        best.add(new Neighbour<>(distanceSquared, tree, i));
+                    } else if (distanceSquared < best.peek().distanceSquared) {
+                        best.poll();
+                        best.add(new Neighbour<>(distanceSquared, tree, i));
+                    }
+                }
+                continue;
+            }
+            for (QuadTree<P> child : tree.children()) {
+                if (child.size == 0)
+                    continue;
+                double distanceSquared = child.minDistanceSquared(latitude, longitude);
+                if (distanceSquared <= maxDistanceSquared)
+                    pending.add(new Neighbour<>(distanceSquared, child, -1));
+            }
+        }
+        QuadNode<P>[] answer = newNodeArray(best.size());
+        for (int i = answer.length - 1; i >= 0; i--) {
+            Neighbour<P> neighbour = best.poll();
+            answer[i] = neighbour.tree.nodeAt(neighbour.index);
+        }
+        return Arrays.asList(answer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> QuadNode<P>[] newNodeArray(int length) {
+        return (QuadNode<P>[]) new QuadNode<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> QuadTree<P>[] newTreeArray(int length) {
+        return (QuadTree<P>[]) new QuadTree<?>[length];
+    }
+
+    private double minDistanceSquared(double latitude, double longitude) {
+        double minLatitude = Math.min(topLeft.getLatitude(), bottomRight.getLatitude());
+        double maxLatitude = Math.max(topLeft.getLatitude(), bottomRight.getLatitude());
+        double minLongitude = Math.min(topLeft.getLongitude(), bottomRight.getLongitude());
+        double maxLongitude = Math.max(topLeft.getLongitude(), bottomRight.getLongitude());
+        double dLat = latitude < minLatitude ? minLatitude - latitude : latitude > maxLatitude ? latitude - maxLatitude : 0;
+        double dLong = longitude < minLongitude ? minLongitude - longitude : longitude > maxLongitude ? longitude - maxLongitude : 0;
+        return dLat * dLat + dLong * dLong;
+    }
+
+    private static class RangeSearchTask<P> extends RecursiveTask<List<QuadNode<P>>> {
+        private static final long serialVersionUID = 1L;
+        private final QuadTree<P> tree;
+        private final Region region;
+        private final boolean coarse;
+        private final boolean contained;
+        private final int parallelThreshold;
+        private final double minLatitude;
+        private final double maxLatitude;
+        private final double minLongitude;
+        private final double maxLongitude;
+
+        private RangeSearchTask(QuadTree<P> tree, Region region, boolean coarse, boolean contained, int parallelThreshold,
+                                double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+            this.tree = tree;
+            this.region = region;
+            this.coarse = coarse;
+            this.contained = contained;
+            this.parallelThreshold = parallelThreshold;
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+
+        @Override
+        protected List<QuadNode<P>> compute() {
+            List<QuadNode<P>> answer = new ArrayList<>();
+            PointConsumer<P> collector = (latitude, longitude, data) -> answer.add(new QuadNode<>(latitude, longitude, data));
+            if (tree.size == 0)
+                return answer;
+            if (tree.isLeaf || tree.size < parallelThreshold) {
+                if (contained)
+                    tree.forEach(collector);
+                else if (coarse)
+                    tree.forEachLeaf(region, minLatitude, maxLatitude, minLongitude, maxLongitude, leaf -> leaf.forEach(collector));
+                else
+                    tree.rangeSearch(region, minLatitude, maxLatitude, minLongitude, maxLongitude, collector);
+                return answer;
+            }
+            if (!contained && !region.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))
+                return answer;
+            boolean inside = contained || region.contains(minLatitude, maxLatitude, minLongitude, maxLongitude);
+            double midLatitude = (tree.topLeft.getLatitude() + tree.bottomRight.getLatitude()) / 2;
+            double midLongitude = (tree.topLeft.getLongitude() + tree.bottomRight.getLongitude()) / 2;
+            List<RangeSearchTask<P>> tasks = Arrays.asList(
+                    new RangeSearchTask<>(tree.topLeftTree, region, coarse, inside, parallelThreshold, midLatitude, maxLatitude, minLongitude, midLongitude),
+                    new RangeSearchTask<>(tree.topRightTree, region, coarse, inside, parallelThreshold, midLatitude, maxLatitude, midLongitude, maxLongitude),
+                    new RangeSearchTask<>(tree.bottomLeftTree, region, coarse, inside, parallelThreshold, minLatitude, midLatitude, minLongitude, midLongitude),
+                    new RangeSearchTask<>(tree.bottomRightTree, region, coarse, inside, parallelThreshold, minLatitude, midLatitude, midLongitude, maxLongitude));
+            for (RangeSearchTask<P> task : invokeAll(tasks))
+                answer.addAll(task.join());
+            return answer;
+        }
+    }
+
+    private static class ForEachTask<P> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final QuadTree<P> tree;
+        private final PointConsumer<P> consumer;
+        private final int parallelThreshold;
+
+        private ForEachTask(QuadTree<P> tree, PointConsumer<P> consumer, int parallelThreshold) {
+            this.tree = tree;
+            this.consumer = consumer;
+            this.parallelThreshold = parallelThreshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (tree.isLeaf || tree.size < parallelThreshold) {
+                tree.forEach(consumer);
                 return;
-            else if (curr.nodes.size() == 1) {
-                curr.isLeaf = true;
-                curr.topLeftTree = null;
-                curr.topRightTree = null;
-                curr.bottomLeftTree = null;
-                curr.bottomRightTree = null;
-            }
-            curr.nodes.remove(node);
-            if (curr.isLeaf)
+            }
+            invokeAll(new ForEachTask<>(tree.topLeftTree, consumer, parallelThreshold),
+                    new ForEachTask<>(tree.topRightTree, consumer, parallelThreshold),
+                    new ForEachTask<>(tree.bottomLeftTree, consumer, parallelThreshold),
+                    new ForEachTask<>(tree.bottomRightTree, consumer, parallelThreshold));
+        }
+    }
+
+    private static class JoinTask<A, B> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final QuadTree<A> left;
+        private final QuadTree<B> right;
+        private final double distanceSquared;
+        private final PairConsumer<A, B> consumer;
+        private final int parallelThreshold;
+
+        private JoinTask(QuadTree<A> left, QuadTree<B> right, double distanceSquared, PairConsumer<A, B> consumer, int parallelThreshold) {
+            this.left = left;
+            this.right = right;
+            this.distanceSquared = distanceSquared;
+            this.consumer = consumer;
+            this.parallelThreshold = parallelThreshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (left.size + right.size < parallelThreshold) {
+                joinWithin(left, right, distanceSquared, consumer);
                 return;
-            if (point.getLongitude() < (curr.topLeft.getLongitude() + curr.bottomRight.getLongitude()) / 2) {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomLeftTree;
-                } else {
-                    curr = curr.topLeftTree;
-                }
+            }
+            int step = joinStep(left, right, distanceSquared, consumer);
+            List<JoinTask<A, B>> tasks = new ArrayList<>(4);
+            if (step == splitLeft) {
+                for (QuadTree<A> child : left.children())
+                    tasks.add(new JoinTask<>(child, right, distanceSquared, consumer, parallelThreshold));
+            } else if (step == splitRight) {
+                for (QuadTree<B> child : right.children())
+                    tasks.add(new JoinTask<>(left, child, distanceSquared, consumer, parallelThreshold));
+            }
+            invokeAll(tasks);
+        }
+    }
 
-            } else {
-                if (point.getLatitude() < (curr.topLeft.getLatitude() + curr.bottomRight.getLatitude()) / 2) {
-                    curr = curr.bottomRightTree;
+    private static class QuadSpliterator<P> implements Spliterator<QuadNode<P>> {
+        private final Deque<QuadTree<P>> pending;
+        private QuadTree<P> leaf;
+        private int index;
 
+        private QuadSpliterator(Deque<QuadTree<P>> pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super QuadNode<P>> action) {
+            while (leaf == null || index >= leaf.size) {
+                QuadTree<P> tree = pending.poll();
+                if (tree == null)
+                    return false;
+                if (tree.isLeaf) {
+                    leaf = tree;
+                    index = 0;
                 } else {
-                    curr = curr.topRightTree;
+                    Collections.addAll(pending, tree.children());
                 }
             }
+            action.accept(leaf.nodeAt(index++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<QuadNode<P>> trySplit() {
+            if (pending.size() == 1 && !pending.peek().isLeaf)
+                Collections.addAll(pending, pending.poll().children());
+            int half = pending.size() / 2;
+            if (half == 0)
+                return null;
+            Deque<QuadTree<P>> split = new ArrayDeque<>(half);
+            for (int i = 0; i < half; i++)
+                split.add(pending.pollLast());
+            return new QuadSpliterator<>(split);
+        }
+
+        @Override
+        public long estimateSize() {
+            long estimate = leaf == null ? 0 : leaf.size - index;
+            for (QuadTree<P> tree : pending)
+                estimate += tree.size;
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    private static class Neighbour<P> {
+        private final double distanceSquared;
+        private final QuadTree<P> tree;
+        private final int index;
+
+        private Neighbour(double distanceSquared, QuadTree<P> tree, int index) {
+            this.distanceSquared = distanceSquared;
+            this.tree = tree;
+            this.index = index;
+        }
+    }
+
+    public boolean remove(QuadNode<P> node) {
+        Point point = node.getPoint();
+        if (isLeaf) {
+            int index = indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+            if (index < 0)
+                return false;
+            removeAt(index);
+            return true;
+        }
+        if (!childFor(point.getLatitude(), point.getLongitude()).remove(node))
+            return false;
+        size--;
+        aggregate();
+        if (size <= mergeThreshold)
+            merge();
+        return true;
+    }
+
+    // Path copying versions of insert and remove: only the nodes on the path to the affected leaf
+    // are copied, every other subtree is shared with this tree, which is left untouched.
+    QuadTree<P> inserted(double latitude, double longitude, P value) {
+        QuadTree<P> copy = new QuadTree<>(this);
+        if (isLeaf) {
+            copy.latitudes = Arrays.copyOf(latitudes, size + 1);
+            copy.longitudes = Arrays.copyOf(longitudes, size + 1);
+            copy.data = Arrays.copyOf(data, size + 1);
+            copy.latitudes[size] = latitude;
+            copy.longitudes[size] = longitude;
+            copy.data[size] = value;
+            copy.size = size + 1;
+            copy.include(latitude, longitude);
+            if (copy.shouldSubDivide())
+                copy.subDivide();
+            return copy;
+        }
+        copy.size = size + 1;
+        copy.include(latitude, longitude);
+        copy.replaceChild(childFor(latitude, longitude), childFor(latitude, longitude).inserted(latitude, longitude, value));
+        return copy;
+    }
+
+    QuadTree<P> removed(QuadNode<P> node) {
+        Point point = node.getPoint();
+        if (isLeaf) {
+            int index = indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+            if (index < 0)
+                return this;
+            QuadTree<P> copy = new QuadTree<>(this);
+            copy.latitudes = Arrays.copyOf(latitudes, size);
+            copy.longitudes = Arrays.copyOf(longitudes, size);
+            copy.data = Arrays.copyOf(data, size);
+            copy.removeAt(index);
+            return copy;
+        }
+        QuadTree<P> child = childFor(point.getLatitude(), point.getLongitude());
+        QuadTree<P> removed = child.removed(node);
+        if (removed == child)
+            return this;
+        QuadTree<P> copy = new QuadTree<>(this);
+        copy.size = size - 1;
+        copy.replaceChild(child, removed);
+        copy.aggregate();
+        if (copy.size <= mergeThreshold)
+            copy.merge();
+        return copy;
+    }
+
+    // Descends while the old and new positions share a quadrant; only below their lowest common
+    // ancestor is the point taken out of one subtree and put into the other.
+    public boolean move(QuadNode<P> node, double latitude, double longitude) {
+        Point point = node.getPoint();
+        if (isLeaf) {
+            int index = indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+            if (index < 0)
+                return false;
+            latitudes[index] = latitude;
+            longitudes[index] = longitude;
+            aggregate();
+            return true;
+        }
+        QuadTree<P> from = childFor(point.getLatitude(), point.getLongitude());
+        QuadTree<P> to = childFor(latitude, longitude);
+        if (from == to) {
+            if (!from.move(node, latitude, longitude))
+                return false;
+        } else {
+            if (!from.remove(node))
+                return false;
+            to.insert(new Point(latitude, longitude), node.getData());
+        }
+        aggregate();
+        return true;
+    }
+
+    QuadTree<P> moved(QuadNode<P> node, double latitude, double longitude) {
+        Point point = node.getPoint();
+        if (isLeaf) {
+            int index = indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+            if (index < 0)
+                return this;
+            QuadTree<P> copy = new QuadTree<>(this);
+            copy.latitudes = Arrays.copyOf(latitudes, size);
+            copy.longitudes = Arrays.copyOf(longitudes, size);
+            copy.latitudes[index] = latitude;
+            copy.longitudes[index] = longitude;
+            copy.aggregate();
+            return copy;
+        }
+        QuadTree<P> from = childFor(point.getLatitude(), point.getLongitude());
+        QuadTree<P> to = childFor(latitude, longitude);
+        QuadTree<P> copy = new QuadTree<>(this);
+        if (from == to) {
+            QuadTree<P> moved = from.moved(node, latitude, longitude);
+            if (moved == from)
+                return this;
+            copy.replaceChild(from, moved);
+            copy.aggregate();
+            return copy;
+        }
+        QuadTree<P> removed = from.removed(node);
+        if (removed == from)
+            return this;
+        copy.replaceChild(from, removed);
+        copy.replaceChild(to, to.inserted(latitude, longitude, node.getData()));
+        copy.aggregate();
+        return copy;
+    }
+
+    private void replaceChild(QuadTree<P> child, QuadTree<P> replacement) {
+        if (topLeftTree == child)
+            topLeftTree = replacement;
+        else if (topRightTree == child)
+            topRightTree = replacement;
+        else if (bottomLeftTree == child)
+            bottomLeftTree = replacement;
+        else
+            bottomRightTree = replacement;
+    }
+
+    private void merge() {
+        double[] mergedLatitudes = new double[Math.max(size, 4)];
+        double[] mergedLongitudes = new double[mergedLatitudes.length];
+        Object[] mergedData = new Object[mergedLatitudes.length];
+        int count = 0;
+        Deque<QuadTree<P>> pending = new ArrayDeque<>();
+        Collections.addAll(pending, children());
+        while (!pending.isEmpty()) {
+            QuadTree<P> tree = pending.poll();
+            if (!tree.isLeaf) {
+                Collections.addAll(pending, tree.children());
+                continue;
+            }
+            System.arraycopy(tree.latitudes, 0, mergedLatitudes, count, tree.size);
+            System.arraycopy(tree.longitudes, 0, mergedLongitudes, count, tree.size);
+            System.arraycopy(tree.data, 0, mergedData, count, tree.size);
+            count += tree.size;
         }
+        latitudes = mergedLatitudes;
+        longitudes = mergedLongitudes;
+        data = mergedData;
+        isLeaf = true;
+        topLeftTree = null;
+        topRightTree = null;
+        bottomLeftTree = null;
+        bottomRightTree = null;
     }
 
     public int getSize() {
-        return nodes.size();
+        return size;
+    }
+
+    double[] latitudes() {
+        return latitudes;
+    }
+
+    double[] longitudes() {
+        return longitudes;
+    }
+
+    @SuppressWarnings("unchecked")
+    P dataAt(int index) {
+        return (P) data[index];
+    }
+
+    QuadNode<P> nodeAt(int index) {
+        return new QuadNode<>(latitudes[index], longitudes[index], dataAt(index));
     }
 
     public Point getTopLeft() {
@@ -215,6 +1108,22 @@ public class QuadTree<P> {
         return isLeaf;
     }
 
+    public int getCurrentLength() {
+        return currentLength;
+    }
+
+    public int getLeafCapacity() {
+        return leafCapacity;
+    }
+
+    public double getMinCellSize() {
+        return minCellSize;
+    }
+
+    public int getMergeThreshold() {
+        return mergeThreshold;
+    }
+
     public QuadTree<P> getTopLeftTree() {
         return topLeftTree;
     }
@@ -231,8 +1140,61 @@ public class QuadTree<P> {
         return bottomRightTree;
     }
 
-    public Set<QuadNode<P>> getNodes() {
-        return nodes;
+    public Collection<QuadNode<P>> getNodes() {
+        return new AbstractCollection<QuadNode<P>>() {
+            @Override
+            public Iterator<QuadNode<P>> iterator() {
+                return QuadTree.this.iterator();
+            }
+
+            @Override
+            public Spliterator<QuadNode<P>> spliterator() {
+                return QuadTree.this.spliterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Splits along quadrants, so parallel streams over the tree hand whole subtrees to each worker.
+    @Override
+    public Spliterator<QuadNode<P>> spliterator() {
+        return new QuadSpliterator<>(new ArrayDeque<>(Collections.singleton(this)));
+    }
+
+    @Override
+    public Iterator<QuadNode<P>> iterator() {
+        return new Iterator<QuadNode<P>>() {
+            private final Deque<QuadTree<P>> pending = new ArrayDeque<>(Collections.singleton(QuadTree.this));
+            private QuadTree<P> leaf;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (leaf == null || index >= leaf.size) {
+                    QuadTree<P> tree = pending.poll();
+                    if (tree == null)
+                        return false;
+                    if (tree.isLeaf) {
+                        leaf = tree;
+                        index = 0;
+                    } else {
+                        Collections.addAll(pending, tree.children());
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public QuadNode<P> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return leaf.nodeAt(index++);
+            }
+        };
     }
 
     @Override
@@ -245,4 +1207,4 @@ public class QuadTree<P> {
                 ", size=" + getSize() +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,216 @@
+package quad;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Results of range searches kept by query, evicting the least recently used once either maxEntries
+// results or maxPoints points in total are held. A write only drops the results it can change:
+// exact searches whose region contains the point written, and coarse BOX searches overlapping the
+// leaf that split or merged around it.
+public final class QueryCache<T> {
+    private final int maxEntries;
+    private final long maxPoints;
+    private final LinkedHashMap<Key, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long points;
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    QueryCache(int maxEntries, long maxPoints) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1: " + maxEntries);
+        if (maxPoints < 0)
+            throw new IllegalArgumentException("maxPoints must not be negative: " + maxPoints);
+        this.maxEntries = maxEntries;
+        this.maxPoints = maxPoints;
+    }
+
+    synchronized Entry<T> get(Key key) {
+        Entry<T> entry = entries.get(key);
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    // Every write moves the version on, so a result computed by a reader that raced a write is
+    // dropped instead of being cached after the write has already invalidated its entries.
+    synchronized long getVersion() {
+        return version;
+    }
+
+    synchronized void put(Key key, Entry<T> entry, long version) {
+        if (version != this.version || entry.size > maxPoints)
+            return;
+        Entry<T> previous = entries.put(key, entry);
+        if (previous != null)
+            points -= previous.size;
+        points += entry.size;
+        Iterator<Entry<T>> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || points > maxPoints) {
+            points -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // The leaves are the ones holding the point before and after the write, either of which may be
+    // null when there is no tree to take them from. Coarse searches treat the sides of the root as
+    // open, so leaves on them are stretched the same way here.
+    synchronized void invalidate(double latitude, double longitude, QuadTree<?> before, QuadTree<?> after, QuadTree<?> root) {
+        version++;
+        Iterator<Entry<T>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            boolean stale = entry.coarse
+                    ? overlaps(entry.region, before, root) || overlaps(entry.region, after, root)
+                    : entry.region.contains(latitude, longitude);
+            if (stale) {
+                points -= entry.size;
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private static boolean overlaps(Region region, QuadTree<?> leaf, QuadTree<?> root) {
+        if (leaf == null)
+            return false;
+        double minLatitude = leaf.getBottomRight().getLatitude();
+        double maxLatitude = leaf.getTopLeft().getLatitude();
+        double minLongitude = leaf.getTopLeft().getLongitude();
+        double maxLongitude = leaf.getBottomRight().getLongitude();
+        return region.intersects(
+                minLatitude == root.getBottomRight().getLatitude() ? Double.NEGATIVE_INFINITY : minLatitude,
+                maxLatitude == root.getTopLeft().getLatitude() ? Double.POSITIVE_INFINITY : maxLatitude,
+                minLongitude == root.getTopLeft().getLongitude() ? Double.NEGATIVE_INFINITY : minLongitude,
+                maxLongitude == root.getBottomRight().getLongitude() ? Double.POSITIVE_INFINITY : maxLongitude);
+    }
+
+    public synchronized void clear() {
+        version++;
+        entries.clear();
+        points = 0;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getPoints() {
+        return points;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxPoints() {
+        return maxPoints;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{" +
+                "entries=" + entries.size() +
+                ", points=" + points +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", invalidations=" + invalidations +
+                '}';
+    }
+
+    static final class Key {
+        private final SpatialPoints.searchType searchType;
+        private final double latitude;
+        private final double longitude;
+        private final double range;
+
+        Key(SpatialPoints.searchType searchType, double latitude, double longitude, double range) {
+            this.searchType = searchType;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.range = range;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return searchType == key.searchType
+                    && Double.compare(key.latitude, latitude) == 0
+                    && Double.compare(key.longitude, longitude) == 0
+                    && Double.compare(key.range, range) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = searchType.hashCode();
+            result = 31 * result + Double.hashCode(latitude);
+            result = 31 * result + Double.hashCode(longitude);
+            result = 31 * result + Double.hashCode(range);
+            return result;
+        }
+    }
+
+    // One cached result as parallel arrays. It is filled by the query that missed and never changed
+    // once it has been put, so hits replay it without holding the cache's lock.
+    static final class Entry<T> implements PointConsumer<T> {
+        private final Region region;
+        private final boolean coarse;
+        private double[] latitudes = new double[8];
+        private double[] longitudes = new double[8];
+        private Object[] data = new Object[8];
+        private int size;
+
+        Entry(Region region, boolean coarse) {
+            this.region = region;
+            this.coarse = coarse;
+        }
+
+        @Override
+        public void accept(double latitude, double longitude, T value) {
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+                data = Arrays.copyOf(data, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            data[size] = value;
+            size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(PointConsumer<T> consumer) {
+            for (int i = 0; i < size; i++)
+                consumer.accept(latitudes[i], longitudes[i], (T) data[i]);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
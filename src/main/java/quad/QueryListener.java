@@ -0,0 +1,5 @@
+package quad;
+
+public interface QueryListener {
+    void queryCompleted(QueryStats stats);
+}
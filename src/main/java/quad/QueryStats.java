@@ -0,0 +1,58 @@
+package quad;
+
+// Counters for a single query. candidates are the points the coarse pass produced, that is every
+// point in the leaves it reached plus the points of subtrees lying wholly inside the region, and
+// rejected are the ones the exact CIRCLE, STRICT_BOX or GEODESIC test then dropped.
+public final class QueryStats {
+    private final String queryType;
+    long nodesVisited;
+    long leavesScanned;
+    long rejected;
+    long returned;
+    long nanos;
+
+    QueryStats(String queryType) {
+        this.queryType = queryType;
+    }
+
+    public String getQueryType() {
+        return queryType;
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    public long getLeavesScanned() {
+        return leavesScanned;
+    }
+
+    public long getCandidates() {
+        return returned + rejected;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getReturned() {
+        return returned;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStats{" +
+                "queryType=" + queryType +
+                ", nodesVisited=" + nodesVisited +
+                ", leavesScanned=" + leavesScanned +
+                ", candidates=" + getCandidates() +
+                ", rejected=" + rejected +
+                ", returned=" + returned +
+                ", nanos=" + nanos +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package quad;
+
+public interface Region {
+
+    boolean intersects(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude);
+
+    boolean contains(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude);
+
+    boolean contains(double latitude, double longitude);
+
+    // How a rectangle lies against the region. Regions that can tell all three apart in one pass
+    // override it, so traversals test each node once instead of calling intersects and contains.
+    default Overlap overlap(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (!intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))
+            return Overlap.OUTSIDE;
+        return contains(minLatitude, maxLatitude, minLongitude, maxLongitude) ? Overlap.INSIDE : Overlap.CROSSING;
+    }
+
+    static Region box(double latitude, double longitude, double range) {
+        return new BoxRegion(latitude - Math.abs(range), latitude + Math.abs(range), longitude - Math.abs(range), longitude + Math.abs(range));
+    }
+
+    static Region box(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return new BoxRegion(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    static Region circle(double latitude, double longitude, double radius) {
+        return new CircleRegion(latitude, longitude, radius);
+    }
+
+    static Region geodesic(double latitude, double longitude, double radiusInMetres) {
+        return new GeodesicRegion(latitude, longitude, radiusInMetres);
+    }
+
+    static Region polygon(double[] latitudes, double[] longitudes) {
+        return polygon(new double[][]{latitudes}, new double[][]{longitudes});
+    }
+
+    // Each ring is one closed outline; rings inside another cut holes and rings apart from each
+    // other make separate shapes. Building the region indexes the edges, so a polygon used for
+    // many queries should be built once and kept.
+    static Region polygon(double[][] latitudes, double[][] longitudes) {
+        return new PolygonRegion(latitudes, longitudes);
+    }
+
+    enum Overlap {
+        OUTSIDE,
+        CROSSING,
+        INSIDE
+    }
+}
@@ -0,0 +1,319 @@
+package quad;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// A uniform grid for queries that always use about the same range. Points are bucketed into square
+// cells of cellSize kept in a hash map on the cell's row and column packed into a long, so a query
+// with a range up to cellSize looks at no more than 3x3 cells whatever the size of the data. Larger
+// ranges still work, they just visit more cells.
+public final class SpatialGrid<T> {
+    private final double cellSize;
+    private final Cells<T> cells = new Cells<>();
+    private int size;
+
+    public SpatialGrid(double cellSize) {
+        if (!(cellSize > 0) || Double.isInfinite(cellSize))
+            throw new IllegalArgumentException("cellSize must be positive and finite: " + cellSize);
+        this.cellSize = cellSize;
+    }
+
+    public static <T> SpatialGrid<T> of(double cellSize, double[] latitudes, double[] longitudes, T[] data) {
+        if (latitudes.length != longitudes.length || latitudes.length != data.length)
+            throw new IllegalArgumentException("latitudes, longitudes and data must have the same length");
+        SpatialGrid<T> grid = new SpatialGrid<>(cellSize);
+        for (int i = 0; i < latitudes.length; i++)
+            grid.insert(latitudes[i], longitudes[i], data[i]);
+        return grid;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row << 32 | column & 0xffffffffL;
+    }
+
+    private static void checkFinite(double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isInfinite(latitude) || Double.isNaN(longitude) || Double.isInfinite(longitude))
+            throw new IllegalArgumentException("coordinates must be finite: " + latitude + ", " + longitude);
+    }
+
+    public void insert(double latitude, double longitude, T data) {
+        checkFinite(latitude, longitude);
+        int row = cell(latitude);
+        int column = cell(longitude);
+        long key = key(row, column);
+        Cell<T> cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell<>(row, column);
+            cells.put(key, cell);
+        }
+        cell.add(latitude, longitude, data);
+        size++;
+    }
+
+    public boolean remove(QuadNode<T> node) {
+        Point point = node.getPoint();
+        long key = key(cell(point.getLatitude()), cell(point.getLongitude()));
+        Cell<T> cell = cells.get(key);
+        int index = cell == null ? -1 : cell.indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+        if (index < 0)
+            return false;
+        cell.removeAt(index);
+        if (cell.size == 0)
+            cells.remove(key);
+        size--;
+        return true;
+    }
+
+    // Returns the handle for the new position, or null when the node is not in the grid.
+    public QuadNode<T> move(QuadNode<T> node, double latitude, double longitude) {
+        checkFinite(latitude, longitude);
+        Point point = node.getPoint();
+        Cell<T> cell = cells.get(key(cell(point.getLatitude()), cell(point.getLongitude())));
+        int index = cell == null ? -1 : cell.indexOf(point.getLatitude(), point.getLongitude(), node.getData());
+        if (index < 0)
+            return null;
+        if (cell(latitude) == cell.row && cell(longitude) == cell.column) {
+            cell.latitudes[index] = latitude;
+            cell.longitudes[index] = longitude;
+        } else {
+            insert(latitude, longitude, node.getData());
+            remove(node);
+        }
+        return new QuadNode<>(latitude, longitude, node.getData());
+    }
+
+    public Set<QuadNode<T>> rangeSearch(double latitude, double longitude, double range, SpatialPoints.searchType searchType) {
+        Set<QuadNode<T>> rangeAnswer = new HashSet<>();
+        rangeSearch(latitude, longitude, range, searchType, (nodeLatitude, nodeLongitude, data) -> rangeAnswer.add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+        return rangeAnswer;
+    }
+
+    public void rangeSearch(double latitude, double longitude, double range, SpatialPoints.searchType searchType, Consumer<QuadNode<T>> consumer) {
+        rangeSearch(latitude, longitude, range, searchType, (nodeLatitude, nodeLongitude, data) -> consumer.accept(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+    }
+
+    // As with the tree, BOX is the coarse search: it returns every point of the cells it touches.
+    public void rangeSearch(double latitude, double longitude, double range, SpatialPoints.searchType searchType, PointConsumer<T> consumer) {
+        Region region = SpatialPoints.region(latitude, longitude, range, searchType);
+        boolean coarse = searchType == SpatialPoints.searchType.BOX;
+        if (searchType != SpatialPoints.searchType.GEODESIC) {
+            range = Math.abs(range);
+            rangeSearch(region, latitude - range, latitude + range, longitude - range, longitude + range, coarse, consumer);
+            return;
+        }
+        GeodesicRegion geodesic = (GeodesicRegion) region;
+        double west = geodesic.getLongitude() - geodesic.getLongitudeRange();
+        double east = geodesic.getLongitude() + geodesic.getLongitudeRange();
+        // Caps that wrap around the antimeridian reach cells on the far side of the longitudes.
+        if (west < -180 || east > 180)
+            scan(region, false, consumer);
+        else
+            rangeSearch(region, geodesic.getMinLatitude(), geodesic.getMaxLatitude(), west, east, false, consumer);
+    }
+
+    public void rangeSearch(Region region, PointConsumer<T> consumer) {
+        scan(region, false, consumer);
+    }
+
+    private void rangeSearch(Region region, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, boolean coarse, PointConsumer<T> consumer) {
+        int minRow = cell(minLatitude);
+        int maxRow = cell(maxLatitude);
+        int minColumn = cell(minLongitude);
+        int maxColumn = cell(maxLongitude);
+        if (((long) maxRow - minRow + 1) * ((long) maxColumn - minColumn + 1) > cells.size) {
+            scan(region, coarse, consumer);
+            return;
+        }
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                Cell<T> cell = cells.get(key(row, column));
+                if (cell != null)
+                    cell.forEach(coarse ? null : region, consumer);
+                if (column == Integer.MAX_VALUE)
+                    break;
+            }
+            if (row == Integer.MAX_VALUE)
+                break;
+        }
+    }
+
+    // Visits every cell, which beats enumerating the query's cells once it covers more of them
+    // than there are occupied ones.
+    private void scan(Region region, boolean coarse, PointConsumer<T> consumer) {
+        for (Cell<T> cell : cells.values) {
+            if (cell == null)
+                continue;
+            // Bounds are widened by a few ulps as the division in cell() may round a point just
+            // outside of the cell it is put in.
+            double minLatitude = cell.row * cellSize;
+            double maxLatitude = (cell.row + 1.0) * cellSize;
+            double minLongitude = cell.column * cellSize;
+            double maxLongitude = (cell.column + 1.0) * cellSize;
+            double latitudeSlack = 4 * Math.max(Math.ulp(minLatitude), Math.ulp(maxLatitude));
+            double longitudeSlack = 4 * Math.max(Math.ulp(minLongitude), Math.ulp(maxLongitude));
+            if (region.intersects(minLatitude - latitudeSlack, maxLatitude + latitudeSlack, minLongitude - longitudeSlack, maxLongitude + longitudeSlack))
+                cell.forEach(coarse ? null : region, consumer);
+        }
+    }
+
+    public void forEach(PointConsumer<T> consumer) {
+        for (Cell<T> cell : cells.values) {
+            if (cell != null)
+                cell.forEach(null, consumer);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getCells() {
+        return cells.size;
+    }
+
+    @Override
+    public String toString() {
+        return "SpatialGrid{" +
+                "cellSize=" + cellSize +
+                ", size=" + size +
+                ", cells=" + cells.size +
+                '}';
+    }
+
+    // The points of one cell, kept as parallel arrays the way QuadTree keeps the points of a leaf.
+    private static final class Cell<T> {
+        private static final int initialCapacity = 4;
+        private final int row;
+        private final int column;
+        private double[] latitudes = new double[initialCapacity];
+        private double[] longitudes = new double[initialCapacity];
+        private Object[] data = new Object[initialCapacity];
+        private int size;
+
+        private Cell(int row, int column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        private void add(double latitude, double longitude, T value) {
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+                data = Arrays.copyOf(data, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            data[size] = value;
+            size++;
+        }
+
+        private int indexOf(double latitude, double longitude, T value) {
+            for (int i = 0; i < size; i++) {
+                if (latitudes[i] == latitude && longitudes[i] == longitude && Objects.equals(data[i], value))
+                    return i;
+            }
+            return -1;
+        }
+
+        private void removeAt(int index) {
+            size--;
+            latitudes[index] = latitudes[size];
+            longitudes[index] = longitudes[size];
+            data[index] = data[size];
+            data[size] = null;
+        }
+
+        // A null region accepts every point of the cell.
+        @SuppressWarnings("unchecked")
+        private void forEach(Region region, PointConsumer<T> consumer) {
+            for (int i = 0; i < size; i++) {
+                if (region == null || region.contains(latitudes[i], longitudes[i]))
+                    consumer.accept(latitudes[i], longitudes[i], (T) data[i]);
+            }
+        }
+    }
+
+    // An open addressing map from packed cell coordinates to cells, so lookups neither box the key
+    // nor chase an entry object. Removal shifts the following entries back instead of leaving
+    // tombstones.
+    private static final class Cells<T> {
+        private long[] keys = new long[16];
+        private Cell<T>[] values = newValues(16);
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        private static <T> Cell<T>[] newValues(int capacity) {
+            return (Cell<T>[]) new Cell<?>[capacity];
+        }
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32 ^ hash) & keys.length - 1;
+        }
+
+        private Cell<T> get(long key) {
+            for (int i = slot(key); values[i] != null; i = i + 1 & keys.length - 1) {
+                if (keys[i] == key)
+                    return values[i];
+            }
+            return null;
+        }
+
+        private void put(long key, Cell<T> cell) {
+            if (2 * (size + 1) > keys.length)
+                resize(keys.length * 2);
+            int i = slot(key);
+            while (values[i] != null && keys[i] != key)
+                i = i + 1 & keys.length - 1;
+            if (values[i] == null)
+                size++;
+            keys[i] = key;
+            values[i] = cell;
+        }
+
+        private void remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while (values[i] != null && keys[i] != key)
+                i = i + 1 & mask;
+            if (values[i] == null)
+                return;
+            size--;
+            // Moves back every later entry of the run whose home slot does not lie between the hole
+            // and its current slot, which keeps each of them reachable from where its probe starts.
+            int hole = i;
+            for (int j = hole + 1 & mask; values[j] != null; j = j + 1 & mask) {
+                int home = slot(keys[j]);
+                if ((j - home & mask) >= (j - hole & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            values[hole] = null;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Cell<T>[] oldValues = values;
+            keys = new long[capacity];
+            values = newValues(capacity);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null)
+                    put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -1,63 +1,750 @@
 package quad;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class SpatialPoints<T> {
 
-    private final QuadTree<T> quadTree;
+    private static final Point defaultTopLeft = new Point(100, 0);
+    private static final Point defaultBottomRight = new Point(0, 100);
+    private volatile QuadTree<T> quadTree;
+    private final boolean concurrent;
+    private final Object writeLock = new Object();
+    private final MutationLog<T> log;
+    private final LinearQuadTree<T> linear;
+    private ForkJoinPool pool;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private volatile Instrumentation instrumentation;
+    private volatile QueryCache<T> cache;
+    private volatile long modifications;
+    private volatile KeyIndex<T> keyIndex;
 
     public SpatialPoints() {
-        this.quadTree = new QuadTree<T>(new Point(100, 0), new Point(0, 100), 0);
+        this(defaultTopLeft, defaultBottomRight);
+    }
+
+    public SpatialPoints(int leafCapacity, double minCellSize, int mergeThreshold) {
+        this(defaultTopLeft, defaultBottomRight, leafCapacity, minCellSize, mergeThreshold);
+    }
+
+    public SpatialPoints(Point topLeft, Point bottomRight) {
+        this(topLeft, bottomRight, QuadTree.defaultLeafCapacity, QuadTree.defaultMinCellSize, QuadTree.defaultMergeThreshold);
+    }
+
+    // The bounds are only the initial extent: inserting outside them grows the root outwards.
+    public SpatialPoints(Point topLeft, Point bottomRight, int leafCapacity, double minCellSize, int mergeThreshold) {
+        this(new QuadTree<T>(checkBounds(topLeft, bottomRight), bottomRight, 0, leafCapacity, minCellSize, mergeThreshold), false);
+    }
+
+    SpatialPoints(QuadTree<T> quadTree, boolean concurrent) {
+        this(quadTree, concurrent, null);
+    }
+
+    private SpatialPoints(QuadTree<T> quadTree, boolean concurrent, MutationLog<T> log) {
+        this.quadTree = quadTree;
+        this.concurrent = concurrent;
+        this.log = log;
+        this.linear = null;
+    }
+
+    private SpatialPoints(LinearQuadTree<T> linear) {
+        this.quadTree = null;
+        this.concurrent = false;
+        this.log = null;
+        this.linear = linear;
+    }
+
+    // Writers copy the path to the leaf they change and publish the new root, so readers always
+    // query an immutable snapshot without taking any lock.
+    public static <T> SpatialPoints<T> concurrent() {
+        return concurrent(QuadTree.defaultLeafCapacity, QuadTree.defaultMinCellSize, QuadTree.defaultMergeThreshold);
+    }
+
+    public static <T> SpatialPoints<T> concurrent(int leafCapacity, double minCellSize, int mergeThreshold) {
+        return concurrent(defaultTopLeft, defaultBottomRight, leafCapacity, minCellSize, mergeThreshold);
+    }
+
+    public static <T> SpatialPoints<T> concurrent(Point topLeft, Point bottomRight, int leafCapacity, double minCellSize, int mergeThreshold) {
+        return new SpatialPoints<>(new QuadTree<T>(checkBounds(topLeft, bottomRight), bottomRight, 0, leafCapacity, minCellSize, mergeThreshold), true);
+    }
+
+    // A durable index is concurrent: every write is logged before it is published, and compaction
+    // snapshots an immutable root in the background while writes carry on.
+    public static <T> SpatialPoints<T> recover(MutationLog<T> log) throws IOException {
+        QuadTree<T> snapshot = log.latestSnapshot();
+        SpatialPoints<T> replayed = snapshot == null ? concurrent() : new SpatialPoints<>(snapshot, true);
+        log.replay(replayed);
+        return new SpatialPoints<>(replayed.quadTree, true, log);
+    }
+
+    // The linear engine keeps the points in arrays sorted by Morton key rather than in a tree of
+    // nodes, which suits read-mostly data: queries binary search key intervals, while writes shift
+    // the arrays. It has no QuadTree, so getQuadTree and the leaf returning searches are unsupported.
+    public static <T> SpatialPoints<T> linear() {
+        return linear(defaultTopLeft, defaultBottomRight, QuadTree.defaultLeafCapacity);
+    }
+
+    public static <T> SpatialPoints<T> linear(Point topLeft, Point bottomRight, int leafCapacity) {
+        return new SpatialPoints<>(new LinearQuadTree<T>(checkBounds(topLeft, bottomRight), bottomRight, leafCapacity));
+    }
+
+    public static <T> SpatialPoints<T> linear(double[] latitudes, double[] longitudes, T[] data) {
+        return linear(defaultTopLeft, defaultBottomRight, latitudes, longitudes, data, QuadTree.defaultLeafCapacity);
+    }
+
+    public static <T> SpatialPoints<T> linear(Point topLeft, Point bottomRight, double[] latitudes, double[] longitudes, T[] data, int leafCapacity) {
+        Point[] bounds = coveringBounds(checkBounds(topLeft, bottomRight), bottomRight, latitudes, longitudes);
+        return new SpatialPoints<>(LinearQuadTree.<T>bulkLoad(bounds[0], bounds[1], leafCapacity, latitudes, longitudes, data));
+    }
+
+    public static <T> SpatialPoints<T> bulkLoad(double[] latitudes, double[] longitudes, T[] data) {
+        return bulkLoad(latitudes, longitudes, data, QuadTree.defaultLeafCapacity, QuadTree.defaultMinCellSize, QuadTree.defaultMergeThreshold);
+    }
+
+    public static <T> SpatialPoints<T> bulkLoad(double[] latitudes, double[] longitudes, T[] data, int leafCapacity, double minCellSize, int mergeThreshold) {
+        return bulkLoad(defaultTopLeft, defaultBottomRight, latitudes, longitudes, data, leafCapacity, minCellSize, mergeThreshold);
+    }
+
+    public static <T> SpatialPoints<T> bulkLoad(Point topLeft, Point bottomRight, double[] latitudes, double[] longitudes, T[] data,
+                                                int leafCapacity, double minCellSize, int mergeThreshold) {
+        Point[] bounds = coveringBounds(checkBounds(topLeft, bottomRight), bottomRight, latitudes, longitudes);
+        return new SpatialPoints<>(QuadTree.<T>bulkLoad(bounds[0], bounds[1], leafCapacity, minCellSize, mergeThreshold, latitudes, longitudes, data), false);
+    }
+
+    public static <T> SpatialPoints<T> bulkLoad(double[] latitudes, double[] longitudes, T[] data, ForkJoinPool pool, int parallelThreshold) {
+        Point[] bounds = coveringBounds(defaultTopLeft, defaultBottomRight, latitudes, longitudes);
+        SpatialPoints<T> spatialPoints = new SpatialPoints<>(QuadTree.<T>bulkLoad(bounds[0], bounds[1],
+                QuadTree.defaultLeafCapacity, QuadTree.defaultMinCellSize, QuadTree.defaultMergeThreshold,
+                latitudes, longitudes, data, pool, parallelThreshold), false);
+        spatialPoints.setParallelism(pool, parallelThreshold);
+        return spatialPoints;
+    }
+
+    private static Point checkBounds(Point topLeft, Point bottomRight) {
+        if (!(topLeft.getLatitude() > bottomRight.getLatitude()) || !(topLeft.getLongitude() < bottomRight.getLongitude())
+                || !isFinite(topLeft.getLatitude(), topLeft.getLongitude()) || !isFinite(bottomRight.getLatitude(), bottomRight.getLongitude()))
+            throw new IllegalArgumentException("topLeft must be above and to the left of bottomRight: " + topLeft + ", " + bottomRight);
+        return topLeft;
+    }
+
+    private static boolean isFinite(double latitude, double longitude) {
+        return !Double.isNaN(latitude) && !Double.isInfinite(latitude) && !Double.isNaN(longitude) && !Double.isInfinite(longitude);
+    }
+
+    private static Point[] coveringBounds(Point topLeft, Point bottomRight, double[] latitudes, double[] longitudes) {
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < Math.min(latitudes.length, longitudes.length); i++) {
+            if (!isFinite(latitudes[i], longitudes[i]))
+                throw new IllegalArgumentException("coordinates must be finite: " + latitudes[i] + ", " + longitudes[i]);
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+        }
+        Point[] bounds = {topLeft, bottomRight};
+        while (minLatitude < bounds[1].getLatitude() || maxLatitude > bounds[0].getLatitude()
+                || minLongitude < bounds[0].getLongitude() || maxLongitude > bounds[1].getLongitude()) {
+            bounds = QuadTree.grownBounds(bounds[0], bounds[1],
+                    minLatitude < bounds[1].getLatitude() ? minLatitude : maxLatitude,
+                    minLongitude < bounds[0].getLongitude() ? minLongitude : maxLongitude);
+        }
+        return bounds;
+    }
+
+    private static void checkFinite(double latitude, double longitude) {
+        if (!isFinite(latitude, longitude))
+            throw new IllegalArgumentException("coordinates must be finite: " + latitude + ", " + longitude);
+    }
+
+    private static <T> QuadTree<T> covering(QuadTree<T> tree, double latitude, double longitude) {
+        checkFinite(latitude, longitude);
+        while (!tree.covers(latitude, longitude))
+            tree = tree.grow(latitude, longitude);
+        return tree;
+    }
+
+    // Queries and scans over subtrees holding at least parallelThreshold points are split across the
+    // pool by quadrant; smaller subtrees are handled sequentially. A null pool turns this off.
+    public void setParallelism(ForkJoinPool pool, int parallelThreshold) {
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("parallelThreshold must be at least 1: " + parallelThreshold);
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    private boolean isParallel(QuadTree<T> tree) {
+        return pool != null && tree != null && tree.getSize() >= parallelThreshold;
     }
 
     public void insert(double latitude, double longitude, T data) {
-        quadTree.insert(new Point(latitude, longitude), data);
+        QueryCache<T> cache = this.cache;
+        if (linear != null) {
+            KeyIndex<T> keyIndex = this.keyIndex;
+            Object key = keyIndex == null ? null : keyIndex.claim(data);
+            checkFinite(latitude, longitude);
+            linear.insert(latitude, longitude, data);
+            modified(cache, latitude, longitude, null, false);
+            if (keyIndex != null)
+                keyIndex.put(key, new QuadNode<>(latitude, longitude, data));
+            return;
+        }
+        if (!concurrent) {
+            KeyIndex<T> keyIndex = this.keyIndex;
+            Object key = keyIndex == null ? null : keyIndex.claim(data);
+            QuadTree<T> tree = quadTree;
+            boolean grown = !tree.covers(latitude, longitude);
+            if (grown)
+                quadTree = tree = covering(tree, latitude, longitude);
+            QuadTree<T> before = leafBefore(cache, tree, latitude, longitude);
+            tree.insert(new Point(latitude, longitude), data);
+            modified(cache, latitude, longitude, before, grown);
+            if (keyIndex != null)
+                keyIndex.put(key, new QuadNode<>(latitude, longitude, data));
+            return;
+        }
+        long sequence;
+        synchronized (writeLock) {
+            KeyIndex<T> keyIndex = this.keyIndex;
+            Object key = keyIndex == null ? null : keyIndex.claim(data);
+            QuadTree<T> current = covering(quadTree, latitude, longitude);
+            QuadTree<T> before = leafBefore(cache, current, latitude, longitude);
+            QuadTree<T> next = current.inserted(latitude, longitude, data);
+            sequence = log == null ? 0 : log.append(MutationLog.insertRecord, latitude, longitude, data, 0, 0);
+            boolean grown = current != quadTree;
+            quadTree = next;
+            modified(cache, latitude, longitude, before, grown);
+            if (keyIndex != null)
+                keyIndex.put(key, new QuadNode<>(latitude, longitude, data));
+        }
+        committed(sequence);
     }
 
-    public QuadTree<T> search(double latitude, double longitude) {
-        return quadTree.search(new Point(latitude, longitude));
+    // Writes look up the leaf holding the point before they change the tree, since an insert may
+    // split it, and drop the cached results they affect once the change is published.
+    private static <T> QuadTree<T> leafBefore(QueryCache<T> cache, QuadTree<T> tree, double latitude, double longitude) {
+        return cache == null ? null : tree.search(new Point(latitude, longitude));
     }
 
-    private boolean isInside(Point nodePoint, double minLat, double maxLat, double minLong, double maxLong) {
-        return nodePoint.getLongitude() >= minLong
-                && nodePoint.getLongitude() <= maxLong
-                && nodePoint.getLatitude() >= minLat
-                && nodePoint.getLatitude() <= maxLat;
+    // Growing the root changes which leaves have open sides, so it drops every cached result.
+    private void modified(QueryCache<T> cache, double latitude, double longitude, QuadTree<T> before, boolean grown) {
+        modifications++;
+        if (cache == null)
+            return;
+        QuadTree<T> root = quadTree;
+        if (grown)
+            cache.clear();
+        else
+            cache.invalidate(latitude, longitude, before, root == null ? null : root.search(new Point(latitude, longitude)), root);
     }
 
-    private boolean isInside(Point nodePoint, double latitude, double longitude, double radiusSquared) {
-        return (Math.pow(nodePoint.getLatitude() - latitude, 2) + Math.pow(nodePoint.getLongitude() - longitude, 2)) <= radiusSquared;
+    private void committed(long sequence) {
+        if (log == null)
+            return;
+        log.commit(sequence);
+        if (log.shouldCompact())
+            compact();
+    }
+
+    // Snapshots the current root in the background and then drops the log segments it covers.
+    public Future<?> compact() {
+        if (log == null)
+            throw new IllegalStateException("only an index recovered from a MutationLog can be compacted");
+        synchronized (writeLock) {
+            try {
+                return log.compact(quadTree, log.rotate());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // While disabled, queries pay for nothing but reading the field; when enabled each query is
+    // counted through a wrapping Region and consumer and timed, consumer callbacks included.
+    public Instrumentation enableInstrumentation() {
+        synchronized (writeLock) {
+            if (instrumentation == null)
+                instrumentation = new Instrumentation(this);
+            return instrumentation;
+        }
+    }
+
+    public void disableInstrumentation() {
+        instrumentation = null;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    // Caches the results of rangeSearch by search type, centre and range, so repeating a query
+    // replays its points instead of searching again. Only the results a write can change are
+    // dropped by it; see QueryCache. Hits are not counted by the instrumentation.
+    public QueryCache<T> enableCache(int maxEntries, long maxPoints) {
+        synchronized (writeLock) {
+            cache = new QueryCache<>(maxEntries, maxPoints);
+            return cache;
+        }
+    }
+
+    public void disableCache() {
+        cache = null;
+    }
+
+    public QueryCache<T> getCache() {
+        return cache;
+    }
+
+    private static void record(Instrumentation instrumentation, String queryType, long start, long nodesVisited, long returned) {
+        QueryStats stats = new QueryStats(queryType);
+        stats.nanos = System.nanoTime() - start;
+        stats.nodesVisited = nodesVisited;
+        stats.returned = returned;
+        instrumentation.record(stats);
+    }
+
+    private void rangeSearch(String queryType, Region region, boolean coarse, PointConsumer<T> consumer) {
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation == null) {
+            traverse(region, coarse, consumer, null);
+            return;
+        }
+        QueryStats stats = new QueryStats(queryType);
+        PointConsumer<T> counted = (latitude, longitude, data) -> {
+            stats.returned++;
+            consumer.accept(latitude, longitude, data);
+        };
+        long start = System.nanoTime();
+        traverse(new CountingRegion(region, stats), coarse, counted, stats);
+        stats.nanos = System.nanoTime() - start;
+        instrumentation.record(stats);
+    }
+
+    private void traverse(Region region, boolean coarse, PointConsumer<T> consumer, QueryStats stats) {
+        if (linear != null) {
+            linear.rangeSearch(region, coarse, consumer);
+        } else if (!coarse) {
+            quadTree.rangeSearch(region, consumer);
+        } else {
+            quadTree.forEachLeaf(region, leaf -> {
+                if (stats != null)
+                    stats.leavesScanned++;
+                leaf.forEach(consumer);
+            });
+        }
+    }
+
+    public QuadTree<T> search(double latitude, double longitude) {
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation == null)
+            return tree().search(new Point(latitude, longitude));
+        long start = System.nanoTime();
+        QuadTree<T> tree = tree();
+        QuadTree<T> leaf = tree.search(new Point(latitude, longitude));
+        record(instrumentation, "SEARCH", start, leaf.getCurrentLength() - tree.getCurrentLength() + 1, 0);
+        return leaf;
     }
 
     public Set<QuadNode<T>> rangeSearch(double latitude, double longitude, double range, searchType searchType) {
-        Set<QuadNode<T>> rangeAnswer = quadTree.rangeSearch(new Point(latitude, longitude), range);
+        QuadTree<T> tree = quadTree;
+        // With a cache enabled the search runs sequentially, through the path that keeps its result.
+        if (cache == null && isParallel(tree)) {
+            Region region = region(latitude, longitude, range, searchType);
+            boolean coarse = searchType == SpatialPoints.searchType.BOX;
+            Instrumentation instrumentation = this.instrumentation;
+            if (instrumentation == null)
+                return new HashSet<>(tree.rangeSearch(region, coarse, pool, parallelThreshold));
+            ParallelCountingRegion counted = new ParallelCountingRegion(region);
+            long start = System.nanoTime();
+            Set<QuadNode<T>> rangeAnswer = new HashSet<>(tree.rangeSearch(counted, coarse, pool, parallelThreshold));
+            QueryStats stats = new QueryStats(searchType.name());
+            stats.nanos = System.nanoTime() - start;
+            counted.addTo(stats);
+            stats.returned = rangeAnswer.size();
+            instrumentation.record(stats);
+            return rangeAnswer;
+        }
+        Set<QuadNode<T>> rangeAnswer = new HashSet<>();
+        rangeSearch(latitude, longitude, range, searchType, (nodeLatitude, nodeLongitude, data) -> rangeAnswer.add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+        return rangeAnswer;
+    }
+
+    public void rangeSearch(double latitude, double longitude, double range, searchType searchType, Consumer<QuadNode<T>> consumer) {
+        rangeSearch(latitude, longitude, range, searchType, (nodeLatitude, nodeLongitude, data) -> consumer.accept(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+    }
+
+    public void rangeSearch(double latitude, double longitude, double range, searchType searchType, PointConsumer<T> consumer) {
+        Region region = region(latitude, longitude, range, searchType);
+        boolean coarse = searchType == SpatialPoints.searchType.BOX;
+        QueryCache<T> cache = this.cache;
+        // The linear engine's leaves are implicit, so there is nothing to invalidate its coarse results by.
+        if (cache == null || coarse && linear != null) {
+            rangeSearch(searchType.name(), region, coarse, consumer);
+            return;
+        }
+        QueryCache.Key key = new QueryCache.Key(searchType, latitude, longitude, range);
+        QueryCache.Entry<T> entry = cache.get(key);
+        if (entry != null) {
+            entry.forEach(consumer);
+            return;
+        }
+        // The version is read before the tree, so a write racing this search voids its result.
+        long version = cache.getVersion();
+        QueryCache.Entry<T> result = new QueryCache.Entry<>(region, coarse);
+        rangeSearch(searchType.name(), region, coarse, (nodeLatitude, nodeLongitude, data) -> {
+            result.accept(nodeLatitude, nodeLongitude, data);
+            consumer.accept(nodeLatitude, nodeLongitude, data);
+        });
+        cache.put(key, result, version);
+    }
+
+    static Region region(double latitude, double longitude, double range, searchType searchType) {
         switch (searchType) {
-            case STRICT_BOX: {
-                double minLong = Math.min(longitude + range, longitude - range);
-                double maxLong = Math.max(longitude + range, longitude - range);
-                double minLat = Math.min(latitude + range, latitude - range);
-                double maxLat = Math.max(latitude + range, latitude - range);
-                return rangeAnswer.stream().filter(node -> isInside(node.getPoint(), minLat, maxLat, minLong, maxLong)).collect(Collectors.toSet());
-            }
-            case BOX:
-                return rangeAnswer;
             case CIRCLE:
-                double radiusSquared = range * range;
-                return rangeAnswer.stream().filter(node -> isInside(node.getPoint(), latitude, longitude, radiusSquared)).collect(Collectors.toSet());
+                return Region.circle(latitude, longitude, range);
+            case GEODESIC:
+                return Region.geodesic(latitude, longitude, range);
+            case BOX:
+            case STRICT_BOX:
+            default:
+                return Region.box(latitude, longitude, range);
         }
+    }
+
+    public List<Set<QuadNode<T>>> rangeSearch(double[] latitudes, double[] longitudes, double[] ranges, searchType searchType) {
+        List<Set<QuadNode<T>>> rangeAnswers = new ArrayList<>(latitudes.length);
+        for (int i = 0; i < latitudes.length; i++)
+            rangeAnswers.add(new HashSet<>());
+        rangeSearch(latitudes, longitudes, ranges, searchType, (query, nodeLatitude, nodeLongitude, data) -> rangeAnswers.get(query).add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+        return rangeAnswers;
+    }
+
+    public void rangeSearch(double[] latitudes, double[] longitudes, double[] ranges, searchType searchType, BatchConsumer<T> consumer) {
+        if (latitudes.length != longitudes.length || latitudes.length != ranges.length)
+            throw new IllegalArgumentException("latitudes, longitudes and ranges must have the same length");
+        Region[] regions = new Region[latitudes.length];
+        for (int i = 0; i < regions.length; i++)
+            regions[i] = region(latitudes[i], longitudes[i], ranges[i], searchType);
+        if (linear == null) {
+            quadTree.rangeSearch(regions, latitudes, longitudes, searchType == SpatialPoints.searchType.BOX, consumer);
+            return;
+        }
+        for (int i = 0; i < regions.length; i++) {
+            int query = i;
+            linear.rangeSearch(regions[i], searchType == SpatialPoints.searchType.BOX, (nodeLatitude, nodeLongitude, data) -> consumer.accept(query, nodeLatitude, nodeLongitude, data));
+        }
+    }
+
+    public List<QuadTree<T>> search(double[] latitudes, double[] longitudes) {
+        return Arrays.asList(tree().search(latitudes, longitudes));
+    }
+
+    // Regions such as polygons are best built once and reused, as building one may index it.
+    public Set<QuadNode<T>> rangeSearch(Region region) {
+        Set<QuadNode<T>> rangeAnswer = new HashSet<>();
+        rangeSearch(region, (nodeLatitude, nodeLongitude, data) -> rangeAnswer.add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
         return rangeAnswer;
     }
 
+    public void rangeSearch(Region region, PointConsumer<T> consumer) {
+        rangeSearch("REGION", region, false, consumer);
+    }
+
+    // Answered from the per-subtree aggregates of the tree, descending only where the region's edge
+    // cuts through a subtree. BOX counts exactly like STRICT_BOX, there being no points to return.
+    // The linear engine keeps no aggregates and falls back to streaming the matching points.
+    public int count(double latitude, double longitude, double range, searchType searchType) {
+        return count(region(latitude, longitude, range, searchType));
+    }
+
+    public int count(Region region) {
+        return (int) aggregate(region).getCount();
+    }
+
+    // The mean position of the points in the region, or null when there are none.
+    public Point centroid(double latitude, double longitude, double range, searchType searchType) {
+        return centroid(region(latitude, longitude, range, searchType));
+    }
+
+    public Point centroid(Region region) {
+        return aggregate(region).centroid();
+    }
+
+    private Aggregate aggregate(Region region) {
+        Aggregate aggregate = new Aggregate();
+        if (linear != null)
+            linear.rangeSearch(region, false, (nodeLatitude, nodeLongitude, data) -> aggregate.add(nodeLatitude, nodeLongitude));
+        else
+            quadTree.aggregate(region, aggregate);
+        return aggregate;
+    }
+
+    // Point counts per cell of a columns by rows grid over the bounds, indexed [row][column] with row
+    // 0 at the top. Points outside of the bounds are not counted.
+    public int[][] densityGrid(Point topLeft, Point bottomRight, int columns, int rows) {
+        DensityGrid grid = new DensityGrid(checkBounds(topLeft, bottomRight), bottomRight, columns, rows);
+        if (linear != null)
+            linear.rangeSearch(Region.box(bottomRight.getLatitude(), topLeft.getLatitude(), topLeft.getLongitude(), bottomRight.getLongitude()), false,
+                    (nodeLatitude, nodeLongitude, data) -> grid.add(nodeLatitude, nodeLongitude));
+        else
+            quadTree.density(grid);
+        return grid.getCounts();
+    }
+
+    // Every pair of a point of this index and a point of the other at most distance apart, measured
+    // as CIRCLE searches do. The two trees are walked together rather than searching the other index
+    // once per point, and with parallelism enabled on this index the walk is split across its pool,
+    // the consumer then having to be thread safe. Joining an index with itself pairs every point
+    // with itself too and gives every other pair both ways round.
+    public <U> void join(SpatialPoints<U> other, double distance, PairConsumer<T, U> consumer) {
+        if (!(distance >= 0))
+            throw new IllegalArgumentException("distance must not be negative: " + distance);
+        // The linear engine keeps no subtree extents to walk, so there the other index is searched
+        // once per point after all.
+        if (linear != null || other.linear != null) {
+            forEach((latitude, longitude, data) -> other.traverse(Region.circle(latitude, longitude, distance), false,
+                    (otherLatitude, otherLongitude, otherData) -> consumer.accept(latitude, longitude, data, otherLatitude, otherLongitude, otherData), null));
+            return;
+        }
+        QuadTree<T> tree = quadTree;
+        if (isParallel(tree))
+            QuadTree.join(tree, other.quadTree, distance, consumer, pool, parallelThreshold);
+        else
+            QuadTree.join(tree, other.quadTree, distance, consumer);
+    }
+
+    // With parallelism enabled the consumer is called from the pool's worker threads and must be thread safe.
+    public void forEach(PointConsumer<T> consumer) {
+        QuadTree<T> tree = quadTree;
+        if (linear != null)
+            linear.forEach(consumer);
+        else if (isParallel(tree))
+            tree.forEach(consumer, pool, parallelThreshold);
+        else
+            tree.forEach(consumer);
+    }
+
+    public List<QuadNode<T>> nearest(double latitude, double longitude, int k) {
+        return nearest(latitude, longitude, k, Double.POSITIVE_INFINITY);
+    }
+
+    public List<QuadNode<T>> nearest(double latitude, double longitude, int k, double maxDistance) {
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation == null)
+            return nearest(new Point(latitude, longitude), k, maxDistance);
+        long start = System.nanoTime();
+        List<QuadNode<T>> nearest = nearest(new Point(latitude, longitude), k, maxDistance);
+        record(instrumentation, "NEAREST", start, 0, nearest.size());
+        return nearest;
+    }
+
+    private List<QuadNode<T>> nearest(Point point, int k, double maxDistance) {
+        if (linear != null)
+            return linear.nearest(point.getLatitude(), point.getLongitude(), k, maxDistance);
+        return quadTree.nearest(point, k, maxDistance);
+    }
+
+    // Mutable indexes must not be written to while the snapshot is taken; concurrent ones snapshot
+    // the root current at the time of the call. The linear engine is written through a bulk loaded
+    // QuadTree covering its points, so its snapshots open like any other.
+    public void writeSnapshot(Path path, Function<? super T, byte[]> encoder) throws IOException {
+        QuadTree<T> tree = quadTree;
+        if (linear != null) {
+            double[] latitudes = linear.latitudes();
+            double[] longitudes = linear.longitudes();
+            Point[] bounds = coveringBounds(linear.getTopLeft(), linear.getBottomRight(), latitudes, longitudes);
+            int leafCapacity = linear.getLeafCapacity();
+            tree = QuadTree.bulkLoad(bounds[0], bounds[1], leafCapacity, QuadTree.defaultMinCellSize, leafCapacity / 2, latitudes, longitudes, linear.data());
+        }
+        SpatialSnapshot.write(tree, path, encoder);
+    }
+
     public QuadTree<T> getQuadTree() {
+        return tree();
+    }
+
+    private QuadTree<T> tree() {
+        if (linear != null)
+            throw new UnsupportedOperationException("the linear engine has no QuadTree");
         return quadTree;
     }
 
-    public void remove(QuadNode<T> node) {
-        quadTree.remove(node);
+    public int getSize() {
+        return linear != null ? linear.getSize() : quadTree.getSize();
+    }
+
+    TreeStatistics treeStatistics() {
+        return linear != null ? linear.statistics() : TreeStatistics.of(quadTree);
+    }
+
+    public boolean remove(QuadNode<T> node) {
+        QueryCache<T> cache = this.cache;
+        Point point = node.getPoint();
+        if (linear != null || !concurrent) {
+            if (!(linear != null ? linear.remove(node) : quadTree.remove(node)))
+                return false;
+            modified(cache, point.getLatitude(), point.getLongitude(), null, false);
+            removed(node);
+            return true;
+        }
+        long sequence;
+        synchronized (writeLock) {
+            QuadTree<T> current = quadTree;
+            QuadTree<T> next = current.removed(node);
+            if (next == current)
+                return false;
+            sequence = log == null ? 0 : log.append(MutationLog.removeRecord, point.getLatitude(), point.getLongitude(), node.getData(), 0, 0);
+            quadTree = next;
+            modified(cache, point.getLatitude(), point.getLongitude(), null, false);
+            removed(node);
+        }
+        committed(sequence);
+        return true;
+    }
+
+    // Returns the handle for the new position, or null when the node is not in the index.
+    public QuadNode<T> move(QuadNode<T> node, double latitude, double longitude) {
+        QueryCache<T> cache = this.cache;
+        Point point = node.getPoint();
+        if (linear != null) {
+            checkFinite(latitude, longitude);
+            if (!linear.move(node, latitude, longitude))
+                return null;
+            modified(cache, point.getLatitude(), point.getLongitude(), null, false);
+            modified(cache, latitude, longitude, null, false);
+            return moved(node, latitude, longitude);
+        }
+        if (!concurrent) {
+            QuadTree<T> tree = quadTree;
+            boolean grown = !tree.covers(latitude, longitude);
+            if (grown)
+                quadTree = tree = covering(tree, latitude, longitude);
+            QuadTree<T> before = leafBefore(cache, tree, latitude, longitude);
+            if (!tree.move(node, latitude, longitude)) {
+                if (grown)
+                    modified(cache, latitude, longitude, null, true);
+                return null;
+            }
+            modified(cache, point.getLatitude(), point.getLongitude(), null, grown);
+            modified(cache, latitude, longitude, before, grown);
+            return moved(node, latitude, longitude);
+        }
+        long sequence;
+        QuadNode<T> handle;
+        synchronized (writeLock) {
+            QuadTree<T> current = covering(quadTree, latitude, longitude);
+            QuadTree<T> next = current.moved(node, latitude, longitude);
+            if (next == current)
+                return null;
+            QuadTree<T> before = leafBefore(cache, current, latitude, longitude);
+            sequence = log == null ? 0 : log.append(MutationLog.moveRecord, point.getLatitude(), point.getLongitude(), node.getData(), latitude, longitude);
+            boolean grown = current != quadTree;
+            quadTree = next;
+            modified(cache, point.getLatitude(), point.getLongitude(), null, grown);
+            modified(cache, latitude, longitude, before, grown);
+            handle = moved(node, latitude, longitude);
+        }
+        committed(sequence);
+        return handle;
+    }
+
+    private void removed(QuadNode<T> node) {
+        KeyIndex<T> keyIndex = this.keyIndex;
+        if (keyIndex != null)
+            keyIndex.removed(node);
+    }
+
+    private QuadNode<T> moved(QuadNode<T> node, double latitude, double longitude) {
+        QuadNode<T> moved = new QuadNode<>(latitude, longitude, node.getData());
+        KeyIndex<T> keyIndex = this.keyIndex;
+        if (keyIndex != null)
+            keyIndex.moved(moved);
+        return moved;
+    }
+
+    // Keeps a hash index from the key of each payload to its node, so points can be looked up,
+    // moved and removed by key. Existing points are indexed straight away; keys must be unique.
+    public void enableKeyIndex(Function<? super T, ?> keyFunction) {
+        synchronized (writeLock) {
+            KeyIndex<T> keyIndex = new KeyIndex<>(keyFunction);
+            forEach(keyIndex::add);
+            this.keyIndex = keyIndex;
+        }
+    }
+
+    public void disableKeyIndex() {
+        keyIndex = null;
+    }
+
+    public boolean isKeyed() {
+        return keyIndex != null;
+    }
+
+    public QuadNode<T> getByKey(Object key) {
+        return keyIndex().get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return keyIndex().get(key) != null;
+    }
+
+    // Both retry when a concurrent writer moved the point between the lookup and the write.
+    public QuadNode<T> removeByKey(Object key) {
+        KeyIndex<T> keyIndex = keyIndex();
+        QuadNode<T> node = keyIndex.get(key);
+        while (node != null && !remove(node)) {
+            QuadNode<T> current = keyIndex.get(key);
+            node = current == node ? null : current;
+        }
+        return node;
+    }
+
+    public QuadNode<T> moveByKey(Object key, double latitude, double longitude) {
+        KeyIndex<T> keyIndex = keyIndex();
+        QuadNode<T> node = keyIndex.get(key);
+        QuadNode<T> handle = null;
+        while (node != null && (handle = move(node, latitude, longitude)) == null) {
+            QuadNode<T> current = keyIndex.get(key);
+            node = current == node ? null : current;
+        }
+        return handle;
+    }
+
+    private KeyIndex<T> keyIndex() {
+        KeyIndex<T> keyIndex = this.keyIndex;
+        if (keyIndex == null)
+            throw new IllegalStateException("no key index is enabled");
+        return keyIndex;
+    }
+
+    // Changes on every write, so callers holding something derived from the index can tell when to
+    // rebuild it without comparing contents.
+    public long getModificationCount() {
+        return modifications;
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    public boolean isLinear() {
+        return linear != null;
     }
 
+    // GEODESIC treats coordinates as degrees and the range as metres on the earth's surface.
     public enum searchType {
-        CIRCLE, BOX, STRICT_BOX
+        CIRCLE, BOX, STRICT_BOX, GEODESIC
     }
 }
@@ -0,0 +1,40 @@
+package quad;
+
+import java.util.Map;
+
+public interface SpatialPointsMXBean {
+
+    long getQueries();
+
+    long getNodesVisited();
+
+    // Searches split across a pool count their nodes and candidates but not the leaves they scan.
+    long getLeavesScanned();
+
+    long getCandidates();
+
+    long getRejected();
+
+    long getReturned();
+
+    // Keyed by query type and percentile, e.g. "CIRCLE p99"; values are in nanoseconds.
+    Map<String, Long> getLatencyPercentiles();
+
+    int getSize();
+
+    long getNodes();
+
+    long getLeaves();
+
+    long getEmptyLeaves();
+
+    int getMaxDepth();
+
+    long[] getDepthHistogram();
+
+    long[] getLeafOccupancyHistogram();
+
+    long getEstimatedRetainedBytes();
+
+    void reset();
+}
@@ -0,0 +1,480 @@
+package quad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+// A read-only copy of a QuadTree laid out in one file: a node table in which every node covers a
+// contiguous run of points, the point coordinates as primitive arrays and the encoded payloads
+// behind an offset table. Queries read the memory-mapped file directly, so opening a snapshot
+// costs no parsing and processes mapping the same file share the page cache.
+public final class SpatialSnapshot<T> {
+    private static final int magic = 0x51545331;
+    private static final int version = 1;
+    private static final int headerSize = 80;
+    private static final long payloadChunkSize = 1L << 30;
+    private static final int writeBufferSize = 1 << 20;
+    private static final int midLatitudeSection = 0;
+    private static final int midLongitudeSection = 1;
+    private static final int latitudeSection = 2;
+    private static final int longitudeSection = 3;
+    private static final int payloadOffsetSection = 4;
+    private static final int childSection = 5;
+    private static final int startSection = 6;
+    private static final int countSection = 7;
+    private static final int payloadSection = 8;
+
+    private final Point topLeft;
+    private final Point bottomRight;
+    private final int leafCapacity;
+    private final double minCellSize;
+    private final int mergeThreshold;
+    private final int size;
+    private final DoubleBuffer midLatitudes;
+    private final DoubleBuffer midLongitudes;
+    private final DoubleBuffer latitudes;
+    private final DoubleBuffer longitudes;
+    private final LongBuffer payloadOffsets;
+    private final IntBuffer children;
+    private final IntBuffer starts;
+    private final IntBuffer counts;
+    private final ByteBuffer[] payload;
+    private final Function<ByteBuffer, ? extends T> decoder;
+
+    private SpatialSnapshot(FileChannel channel, Path path, Function<ByteBuffer, ? extends T> decoder) throws IOException {
+        if (channel.size() < headerSize)
+            throw new IOException("not a spatial snapshot: " + path);
+        ByteBuffer header = map(channel, 0, headerSize);
+        if (header.getInt(0) != magic)
+            throw new IOException("not a spatial snapshot: " + path);
+        if (header.getInt(4) != version)
+            throw new IOException("unsupported snapshot version " + header.getInt(4) + ": " + path);
+        this.leafCapacity = header.getInt(8);
+        this.mergeThreshold = header.getInt(12);
+        this.minCellSize = header.getDouble(16);
+        this.topLeft = new Point(header.getDouble(24), header.getDouble(32));
+        this.bottomRight = new Point(header.getDouble(40), header.getDouble(48));
+        int nodeCount = header.getInt(56);
+        this.size = header.getInt(60);
+        long payloadLength = header.getLong(64);
+        int maxRecordLength = header.getInt(72);
+        long[] sections = sections(nodeCount, size);
+        if (channel.size() != sections[payloadSection] + payloadLength)
+            throw new IOException("truncated spatial snapshot: " + path);
+        this.midLatitudes = map(channel, sections, midLatitudeSection).asDoubleBuffer();
+        this.midLongitudes = map(channel, sections, midLongitudeSection).asDoubleBuffer();
+        this.latitudes = map(channel, sections, latitudeSection).asDoubleBuffer();
+        this.longitudes = map(channel, sections, longitudeSection).asDoubleBuffer();
+        this.payloadOffsets = map(channel, sections, payloadOffsetSection).asLongBuffer();
+        this.children = map(channel, sections, childSection).asIntBuffer();
+        this.starts = map(channel, sections, startSection).asIntBuffer();
+        this.counts = map(channel, sections, countSection).asIntBuffer();
+        // Chunks overlap by the longest record so that every record lies inside the chunk it starts in.
+        this.payload = new ByteBuffer[(int) Math.max(1, (payloadLength + payloadChunkSize - 1) / payloadChunkSize)];
+        for (int i = 0; i < payload.length; i++) {
+            long from = i * payloadChunkSize;
+            payload[i] = map(channel, sections[payloadSection] + from, Math.min(payloadLength - from, payloadChunkSize + maxRecordLength));
+        }
+        this.decoder = decoder;
+    }
+
+    // The decoder receives a read-only buffer holding exactly the bytes the encoder produced.
+    public static <T> SpatialSnapshot<T> open(Path path, Function<ByteBuffer, ? extends T> decoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new SpatialSnapshot<>(channel, path, decoder);
+        }
+    }
+
+    // Writes to a sibling file first and moves it into place, so a reader never maps a partial snapshot.
+    public static <T> void write(QuadTree<T> tree, Path path, Function<? super T, byte[]> encoder) throws IOException {
+        int nodeCount = countNodes(tree);
+        long[] sections = sections(nodeCount, tree.getSize());
+        Layout<T> layout = new Layout<>(nodeCount, tree.getSize(), encoder);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer payloadWriter = new Writer(channel, sections[payloadSection]);
+            layout.add(tree, 0, payloadWriter);
+            payloadWriter.flush();
+            if (layout.maxRecordLength > Integer.MAX_VALUE - payloadChunkSize)
+                throw new IllegalArgumentException("encoded payloads must be smaller than " + (Integer.MAX_VALUE - payloadChunkSize) + " bytes");
+
+            Writer writer = new Writer(channel, 0);
+            writer.putInt(magic);
+            writer.putInt(version);
+            writer.putInt(tree.getLeafCapacity());
+            writer.putInt(tree.getMergeThreshold());
+            writer.putDouble(tree.getMinCellSize());
+            writer.putDouble(tree.getTopLeft().getLatitude());
+            writer.putDouble(tree.getTopLeft().getLongitude());
+            writer.putDouble(tree.getBottomRight().getLatitude());
+            writer.putDouble(tree.getBottomRight().getLongitude());
+            writer.putInt(nodeCount);
+            writer.putInt(tree.getSize());
+            writer.putLong(layout.payloadLength);
+            writer.putInt((int) layout.maxRecordLength);
+            writer.putInt(0);
+            for (double value : layout.midLatitudes)
+                writer.putDouble(value);
+            for (double value : layout.midLongitudes)
+                writer.putDouble(value);
+            for (double value : layout.latitudes)
+                writer.putDouble(value);
+            for (double value : layout.longitudes)
+                writer.putDouble(value);
+            for (long value : layout.payloadOffsets)
+                writer.putLong(value);
+            for (int value : layout.children)
+                writer.putInt(value);
+            for (int value : layout.starts)
+                writer.putInt(value);
+            for (int value : layout.counts)
+                writer.putInt(value);
+            writer.put(new byte[(int) (sections[payloadSection] - sections[payloadSection + 1])]);
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int countNodes(QuadTree<?> tree) {
+        if (tree.isLeaf())
+            return 1;
+        return 1 + countNodes(tree.getBottomLeftTree()) + countNodes(tree.getBottomRightTree())
+                + countNodes(tree.getTopLeftTree()) + countNodes(tree.getTopRightTree());
+    }
+
+    private static long[] sections(int nodeCount, int pointCount) {
+        long[] sections = new long[payloadSection + 2];
+        long[] lengths = {8L * nodeCount, 8L * nodeCount, 8L * pointCount, 8L * pointCount, 8L * (pointCount + 1),
+                4L * nodeCount, 4L * nodeCount, 4L * nodeCount};
+        sections[0] = headerSize;
+        for (int i = 0; i < lengths.length; i++)
+            sections[i + 1] = sections[i] + lengths[i];
+        sections[payloadSection + 1] = sections[payloadSection];
+        sections[payloadSection] = (sections[payloadSection] + 7) & ~7L;
+        return sections;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long[] sections, int section) throws IOException {
+        long end = section + 1 == payloadSection ? sections[payloadSection + 1] : sections[section + 1];
+        return map(channel, sections[section], end - sections[section]);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("snapshot section of " + length + " bytes is too large to map");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Point getTopLeft() {
+        return topLeft;
+    }
+
+    public Point getBottomRight() {
+        return bottomRight;
+    }
+
+    public Set<QuadNode<T>> rangeSearch(double latitude, double longitude, double range, SpatialPoints.searchType searchType) {
+        Set<QuadNode<T>> rangeAnswer = new HashSet<>();
+        rangeSearch(latitude, longitude, range, searchType, (nodeLatitude, nodeLongitude, data) -> rangeAnswer.add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+        return rangeAnswer;
+    }
+
+    public void rangeSearch(double latitude, double longitude, double range, SpatialPoints.searchType searchType, PointConsumer<T> consumer) {
+        rangeSearch(SpatialPoints.region(latitude, longitude, range, searchType), searchType == SpatialPoints.searchType.BOX, 0,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    public void rangeSearch(Region region, PointConsumer<T> consumer) {
+        rangeSearch(region, false, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    private void rangeSearch(Region region, boolean coarse, int node, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                             PointConsumer<T> consumer) {
+        int count = counts.get(node);
+        if (count == 0)
+            return;
+        Region.Overlap overlap = region.overlap(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        if (overlap == Region.Overlap.OUTSIDE)
+            return;
+        int start = starts.get(node);
+        if (overlap == Region.Overlap.INSIDE) {
+            forEach(start, start + count, consumer);
+            return;
+        }
+        int first = children.get(node);
+        if (first < 0) {
+            for (int i = start; i < start + count; i++) {
+                double latitude = latitudes.get(i);
+                double longitude = longitudes.get(i);
+                if (coarse || region.contains(latitude, longitude))
+                    consumer.accept(latitude, longitude, dataAt(i));
+            }
+            return;
+        }
+
+        double midLatitude = midLatitudes.get(node);
+        double midLongitude = midLongitudes.get(node);
+        rangeSearch(region, coarse, first + MortonOrder.bottomLeft, minLatitude, midLatitude, minLongitude, midLongitude, consumer);
+        rangeSearch(region, coarse, first + MortonOrder.bottomRight, minLatitude, midLatitude, midLongitude, maxLongitude, consumer);
+        rangeSearch(region, coarse, first + MortonOrder.topLeft, midLatitude, maxLatitude, minLongitude, midLongitude, consumer);
+        rangeSearch(region, coarse, first + MortonOrder.topRight, midLatitude, maxLatitude, midLongitude, maxLongitude, consumer);
+    }
+
+    public void forEach(PointConsumer<T> consumer) {
+        forEach(0, size, consumer);
+    }
+
+    private void forEach(int from, int to, PointConsumer<T> consumer) {
+        for (int i = from; i < to; i++)
+            consumer.accept(latitudes.get(i), longitudes.get(i), dataAt(i));
+    }
+
+    public List<QuadNode<T>> nearest(double latitude, double longitude, int k) {
+        return nearest(latitude, longitude, k, Double.POSITIVE_INFINITY);
+    }
+
+    public List<QuadNode<T>> nearest(double latitude, double longitude, int k, double maxDistance) {
+        if (k <= 0 || size == 0)
+            return Collections.emptyList();
+        double maxDistanceSquared = maxDistance * maxDistance;
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distanceSquared, a.distanceSquared));
+        PriorityQueue<Candidate> pending = new PriorityQueue<>((a, b) -> Double.compare(a.distanceSquared, b.distanceSquared));
+        pending.add(new Candidate(latitude, longitude, 0, bottomRight.getLatitude(), topLeft.getLatitude(), topLeft.getLongitude(), bottomRight.getLongitude()));
+        while (!pending.isEmpty()) {
+            Candidate next = pending.poll();
+            if (best.size() == k && next.distanceSquared >= best.peek().distanceSquared)
+                break;
+            int node = next.index;
+            int first = children.get(node);
+            if (first < 0) {
+                int start = starts.get(node);
+                for (int i = start; i < start + counts.get(node); i++) {
+                    double dLat = latitudes.get(i) - latitude;
+                    double dLong = longitudes.get(i) - longitude;
+                    double distanceSquared = dLat * dLat + dLong * dLong;
+                    if (distanceSquared > maxDistanceSquared)
+                        continue;
+                    if (best.size() < k) {
+                        best.add(new Candidate(distanceSquared, i));
+                    } else if (distanceSquared < best.peek().distanceSquared) {
+                        best.poll();
+                        best.add(new Candidate(distanceSquared, i));
+                    }
+                }
+                continue;
+            }
+            double midLatitude = midLatitudes.get(node);
+            double midLongitude = midLongitudes.get(node);
+            Candidate[] quadrants = {
+                    new Candidate(latitude, longitude, first + MortonOrder.bottomLeft, next.minLatitude, midLatitude, next.minLongitude, midLongitude),
+                    new Candidate(latitude, longitude, first + MortonOrder.bottomRight, next.minLatitude, midLatitude, midLongitude, next.maxLongitude),
+                    new Candidate(latitude, longitude, first + MortonOrder.topLeft, midLatitude, next.maxLatitude, next.minLongitude, midLongitude),
+                    new Candidate(latitude, longitude, first + MortonOrder.topRight, midLatitude, next.maxLatitude, midLongitude, next.maxLongitude)};
+            for (Candidate quadrant : quadrants) {
+                if (counts.get(quadrant.index) > 0 && quadrant.distanceSquared <= maxDistanceSquared)
+                    pending.add(quadrant);
+            }
+        }
+        QuadNode<T>[] answer = newNodeArray(best.size());
+        for (int i = answer.length - 1; i >= 0; i--) {
+            int index = best.poll().index;
+            answer[i] = new QuadNode<>(latitudes.get(index), longitudes.get(index), dataAt(index));
+        }
+        return Arrays.asList(answer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> QuadNode<T>[] newNodeArray(int length) {
+        return (QuadNode<T>[]) new QuadNode<?>[length];
+    }
+
+    // Copies every point back onto the heap as a mutable index with the layout of the original tree.
+    public SpatialPoints<T> toSpatialPoints() {
+        return new SpatialPoints<>(toQuadTree(), false);
+    }
+
+    QuadTree<T> toQuadTree() {
+        double[] allLatitudes = new double[size];
+        double[] allLongitudes = new double[size];
+        Object[] allData = new Object[size];
+        for (int i = 0; i < size; i++) {
+            allLatitudes[i] = latitudes.get(i);
+            allLongitudes[i] = longitudes.get(i);
+            allData[i] = dataAt(i);
+        }
+        return QuadTree.bulkLoad(topLeft, bottomRight, leafCapacity, minCellSize, mergeThreshold, allLatitudes, allLongitudes, allData);
+    }
+
+    private T dataAt(int index) {
+        long offset = payloadOffsets.get(index);
+        int length = (int) (payloadOffsets.get(index + 1) - offset);
+        ByteBuffer record = payload[(int) (offset / payloadChunkSize)].duplicate();
+        int position = (int) (offset % payloadChunkSize);
+        record.limit(position + length);
+        record.position(position);
+        return decoder.apply(record.slice());
+    }
+
+    @Override
+    public String toString() {
+        return "SpatialSnapshot{" +
+                "topLeft=" + topLeft +
+                ", bottomRight=" + bottomRight +
+                ", size=" + size +
+                '}';
+    }
+
+    private static class Candidate {
+        private final double distanceSquared;
+        private final int index;
+        private final double minLatitude;
+        private final double maxLatitude;
+        private final double minLongitude;
+        private final double maxLongitude;
+
+        private Candidate(double distanceSquared, int index) {
+            this.distanceSquared = distanceSquared;
+            this.index = index;
+            this.minLatitude = Double.NaN;
+            this.maxLatitude = Double.NaN;
+            this.minLongitude = Double.NaN;
+            this.maxLongitude = Double.NaN;
+        }
+
+        private Candidate(double latitude, double longitude, int node, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+            double dLat = latitude < minLatitude ? minLatitude - latitude : latitude > maxLatitude ? latitude - maxLatitude : 0;
+            double dLong = longitude < minLongitude ? minLongitude - longitude : longitude > maxLongitude ? longitude - maxLongitude : 0;
+            this.distanceSquared = dLat * dLat + dLong * dLong;
+            this.index = node;
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+    }
+
+    // Children are allocated in blocks of four indexed by Morton quadrant, and points are laid out
+    // depth first so that every subtree owns the contiguous range starting at its start.
+    private static class Layout<T> {
+        private final double[] midLatitudes;
+        private final double[] midLongitudes;
+        private final int[] children;
+        private final int[] starts;
+        private final int[] counts;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final long[] payloadOffsets;
+        private final Function<? super T, byte[]> encoder;
+        private int nextNode = 1;
+        private int nextPoint;
+        private long payloadLength;
+        private long maxRecordLength;
+
+        private Layout(int nodeCount, int pointCount, Function<? super T, byte[]> encoder) {
+            this.midLatitudes = new double[nodeCount];
+            this.midLongitudes = new double[nodeCount];
+            this.children = new int[nodeCount];
+            this.starts = new int[nodeCount];
+            this.counts = new int[nodeCount];
+            this.latitudes = new double[pointCount];
+            this.longitudes = new double[pointCount];
+            this.payloadOffsets = new long[pointCount + 1];
+            this.encoder = encoder;
+        }
+
+        private void add(QuadTree<T> tree, int node, Writer payloadWriter) throws IOException {
+            midLatitudes[node] = (tree.getTopLeft().getLatitude() + tree.getBottomRight().getLatitude()) / 2;
+            midLongitudes[node] = (tree.getTopLeft().getLongitude() + tree.getBottomRight().getLongitude()) / 2;
+            starts[node] = nextPoint;
+            counts[node] = tree.getSize();
+            if (tree.isLeaf()) {
+                children[node] = -1;
+                for (int i = 0; i < tree.getSize(); i++) {
+                    byte[] record = encoder.apply(tree.dataAt(i));
+                    latitudes[nextPoint] = tree.latitudes()[i];
+                    longitudes[nextPoint] = tree.longitudes()[i];
+                    payloadOffsets[nextPoint++] = payloadLength;
+                    payloadWriter.put(record);
+                    payloadLength += record.length;
+                    maxRecordLength = Math.max(maxRecordLength, record.length);
+                }
+                payloadOffsets[nextPoint] = payloadLength;
+                return;
+            }
+            int first = nextNode;
+            children[node] = first;
+            nextNode += 4;
+            add(tree.getBottomLeftTree(), first + MortonOrder.bottomLeft, payloadWriter);
+            add(tree.getBottomRightTree(), first + MortonOrder.bottomRight, payloadWriter);
+            add(tree.getTopLeftTree(), first + MortonOrder.topLeft, payloadWriter);
+            add(tree.getTopRightTree(), first + MortonOrder.topRight, payloadWriter);
+        }
+    }
+
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        private Writer(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            for (int from = 0; from < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(bytes.length - from, buffer.remaining());
+                buffer.put(bytes, from, length);
+                from += length;
+            }
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+}
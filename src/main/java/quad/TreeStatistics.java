@@ -0,0 +1,115 @@
+package quad;
+
+import java.util.Arrays;
+
+// A structural summary gathered by walking the whole tree. Retained bytes are an estimate for a
+// 64 bit JVM with compressed oops and leave out the payload objects themselves.
+public final class TreeStatistics {
+    private static final long nodeBytes = 128;
+    private static final long pointBytes = 32;
+    private static final long arrayHeaderBytes = 16;
+    private static final long referenceBytes = 4;
+
+    private final int size;
+    private final long nodes;
+    private final long leaves;
+    private final long[] depthHistogram;
+    private final long[] leafOccupancyHistogram;
+    private final long estimatedRetainedBytes;
+
+    TreeStatistics(int size, long nodes, long leaves, long[] depthHistogram, long[] leafOccupancyHistogram, long estimatedRetainedBytes) {
+        this.size = size;
+        this.nodes = nodes;
+        this.leaves = leaves;
+        this.depthHistogram = depthHistogram;
+        this.leafOccupancyHistogram = leafOccupancyHistogram;
+        this.estimatedRetainedBytes = estimatedRetainedBytes;
+    }
+
+    public static TreeStatistics of(QuadTree<?> tree) {
+        Walk walk = new Walk(tree.getLeafCapacity());
+        walk.visit(tree, 0);
+        return new TreeStatistics(tree.getSize(), walk.nodes, walk.leaves, Arrays.copyOf(walk.depths, walk.maxDepth + 1), walk.leafOccupancy, walk.bytes);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getEmptyLeaves() {
+        return leafOccupancyHistogram[0];
+    }
+
+    public int getMaxDepth() {
+        return depthHistogram.length - 1;
+    }
+
+    // Leaves per depth, the root being at depth 0.
+    public long[] getDepthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    // Leaves per number of points held; the last entry counts the leaves over capacity, which only
+    // exist where minCellSize stopped a split.
+    public long[] getLeafOccupancyHistogram() {
+        return leafOccupancyHistogram.clone();
+    }
+
+    public long getEstimatedRetainedBytes() {
+        return estimatedRetainedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeStatistics{" +
+                "size=" + size +
+                ", nodes=" + nodes +
+                ", leaves=" + leaves +
+                ", emptyLeaves=" + getEmptyLeaves() +
+                ", maxDepth=" + getMaxDepth() +
+                ", estimatedRetainedBytes=" + estimatedRetainedBytes +
+                '}';
+    }
+
+    private static class Walk {
+        private final long[] leafOccupancy;
+        private long[] depths = new long[16];
+        private int maxDepth;
+        private long nodes;
+        private long leaves;
+        private long bytes;
+
+        private Walk(int leafCapacity) {
+            this.leafOccupancy = new long[leafCapacity + 2];
+        }
+
+        private void visit(QuadTree<?> tree, int depth) {
+            nodes++;
+            bytes += nodeBytes + pointBytes;
+            if (!tree.isLeaf()) {
+                visit(tree.getTopLeftTree(), depth + 1);
+                visit(tree.getTopRightTree(), depth + 1);
+                visit(tree.getBottomLeftTree(), depth + 1);
+                visit(tree.getBottomRightTree(), depth + 1);
+                return;
+            }
+            leaves++;
+            if (depth >= depths.length)
+                depths = Arrays.copyOf(depths, Math.max(depths.length * 2, depth + 1));
+            depths[depth]++;
+            maxDepth = Math.max(maxDepth, depth);
+            leafOccupancy[Math.min(tree.getSize(), leafOccupancy.length - 1)]++;
+            int capacity = tree.latitudes().length;
+            if (capacity > 0)
+                bytes += 2 * (arrayHeaderBytes + 8L * capacity) + arrayHeaderBytes + referenceBytes * capacity;
+        }
+    }
+}
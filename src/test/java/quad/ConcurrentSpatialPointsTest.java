@@ -0,0 +1,150 @@
+package quad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// One writer and several readers on a concurrent index: every root a reader picks up must be a
+// consistent snapshot, and nothing written may be lost once the writer is done.
+class ConcurrentSpatialPointsTest {
+    private static final int points = 20_000;
+    private static final int readers = 4;
+
+    @Test
+    void readersSeeConsistentSnapshotsOfInserts() throws Exception {
+        SpatialPoints<Integer> spatialPoints = SpatialPoints.concurrent();
+        double[][] positions = positions(new Random(1));
+        // Ids are inserted in order, so a snapshot holding n points must hold exactly ids 0 to n - 1.
+        run(spatialPoints, () -> {
+            for (int id = 0; id < points; id++)
+                spatialPoints.insert(positions[id][0], positions[id][1], id);
+        }, tree -> {
+            BitSet ids = check(tree);
+            assertEquals(tree.getSize(), ids.nextClearBit(0), "snapshot is not a prefix of the inserts");
+        });
+
+        BitSet ids = check(spatialPoints.getQuadTree());
+        assertEquals(points, ids.cardinality());
+        assertEquals(points, spatialPoints.getSize());
+    }
+
+    @Test
+    void readersSeeConsistentSnapshotsOfMovesAndRemoves() throws Exception {
+        Random random = new Random(2);
+        double[][] positions = positions(random);
+        SpatialPoints<Integer> spatialPoints = SpatialPoints.concurrent();
+        for (int id = 0; id < points; id++)
+            spatialPoints.insert(positions[id][0], positions[id][1], id);
+
+        double[][] moved = positions(random);
+        run(spatialPoints, () -> {
+            for (int id = 0; id < points; id++) {
+                QuadNode<Integer> node = new QuadNode<>(positions[id][0], positions[id][1], id);
+                if (id % 2 == 0)
+                    assertTrue(spatialPoints.remove(node));
+                else
+                    assertNotNull(spatialPoints.move(node, moved[id][0], moved[id][1]));
+            }
+        }, tree -> {
+            BitSet ids = check(tree);
+            // Odd ids are only ever moved, so every snapshot holds all of them.
+            for (int id = 1; id < points; id += 2)
+                assertTrue(ids.get(id), "moved point " + id + " missing from a snapshot");
+        });
+
+        List<Integer> remaining = new ArrayList<>();
+        spatialPoints.forEach((latitude, longitude, id) -> {
+            assertEquals(moved[id][0], latitude);
+            assertEquals(moved[id][1], longitude);
+            remaining.add(id);
+        });
+        assertEquals(points / 2, remaining.size());
+        assertEquals(points / 2, spatialPoints.getSize());
+        for (int id : remaining)
+            assertEquals(1, id % 2);
+    }
+
+    // Some positions fall outside the default bounds, so the writer also grows the root.
+    private static double[][] positions(Random random) {
+        double[][] positions = new double[points][];
+        for (int id = 0; id < points; id++) {
+            double spread = id % 100 == 0 ? 400 : 100;
+            positions[id] = new double[]{random.nextDouble() * spread - (spread - 100) / 2, random.nextDouble() * spread - (spread - 100) / 2};
+        }
+        return positions;
+    }
+
+    private static void run(SpatialPoints<Integer> spatialPoints, Runnable writer, SnapshotCheck check) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<Integer>> reads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                reads.add(executor.submit(() -> {
+                    int snapshots = 0;
+                    do {
+                        check.accept(spatialPoints.getQuadTree());
+                        snapshots++;
+                    } while (writing.get());
+                    return snapshots;
+                }));
+            }
+            Future<?> write = executor.submit(() -> {
+                try {
+                    writer.run();
+                } finally {
+                    writing.set(false);
+                }
+            });
+            write.get(60, TimeUnit.SECONDS);
+            for (Future<Integer> read : reads)
+                assertTrue(read.get(60, TimeUnit.SECONDS) > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Walks the snapshot, checking every inner node's size against its children and every leaf's
+    // against the points it holds, and returns the ids seen, failing on any seen twice.
+    private static BitSet check(QuadTree<Integer> tree) {
+        BitSet ids = new BitSet();
+        int visited = check(tree, ids);
+        assertEquals(tree.getSize(), visited, "root size does not match the points visited");
+        return ids;
+    }
+
+    private static int check(QuadTree<Integer> tree, BitSet ids) {
+        if (tree.isLeaf()) {
+            int[] count = new int[1];
+            tree.forEach((latitude, longitude, id) -> {
+                assertFalse(ids.get(id), "duplicate point " + id);
+                ids.set(id);
+                count[0]++;
+            });
+            assertEquals(tree.getSize(), count[0], "leaf size does not match its points");
+            return count[0];
+        }
+        int size = check(tree.getTopLeftTree(), ids) + check(tree.getTopRightTree(), ids)
+                + check(tree.getBottomLeftTree(), ids) + check(tree.getBottomRightTree(), ids);
+        assertEquals(tree.getSize(), size, "node size does not match its children");
+        return size;
+    }
+
+    @FunctionalInterface
+    private interface SnapshotCheck {
+        void accept(QuadTree<Integer> tree);
+    }
+}
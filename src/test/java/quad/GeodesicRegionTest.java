@@ -0,0 +1,109 @@
+package quad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Checks caps against brute force haversine distances, in particular caps wider than a quarter of
+// the earth, whose farthest point from a rectangle need not be a corner, and caps across the
+// antimeridian.
+class GeodesicRegionTest {
+    private static final double quarter = Math.PI / 2 * GeodesicRegion.earthRadius;
+    // Points this close to the edge of a cap, relatively, may fall either way.
+    private static final double tolerance = 1e-9;
+
+    private static double distance(double latitude, double longitude, double otherLatitude, double otherLongitude) {
+        double phi = Math.toRadians(latitude);
+        double otherPhi = Math.toRadians(otherLatitude);
+        double sinHalfLat = Math.sin((otherPhi - phi) / 2);
+        double sinHalfLong = Math.sin(Math.toRadians(otherLongitude - longitude) / 2);
+        double haversine = sinHalfLat * sinHalfLat + Math.cos(phi) * Math.cos(otherPhi) * sinHalfLong * sinHalfLong;
+        return 2 * GeodesicRegion.earthRadius * Math.asin(Math.min(1, Math.sqrt(haversine)));
+    }
+
+    @Test
+    void rectangleBeyondNinetyDegreesIsNotInsideAlthoughItsCornersAre() {
+        Region cap = Region.geodesic(0, 0, Math.toRadians(160) * GeodesicRegion.earthRadius);
+        assertTrue(cap.contains(0, 150));
+        assertTrue(cap.contains(50, 200));
+        assertFalse(cap.contains(0, 180));
+        assertFalse(cap.contains(0, 50, 150, 200));
+    }
+
+    @Test
+    void rectanglesAgreeWithTheirPoints() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2_000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            double radius = i % 2 == 0 ? quarter + random.nextDouble() * quarter : random.nextDouble() * 2 * quarter;
+            Region cap = Region.geodesic(latitude, longitude, radius);
+            double height = random.nextDouble() * 90;
+            double width = random.nextDouble() * 180;
+            double minLatitude = -90 + random.nextDouble() * (180 - height);
+            double minLongitude = -200 + random.nextDouble() * 400;
+            boolean contained = cap.contains(minLatitude, minLatitude + height, minLongitude, minLongitude + width);
+            boolean intersects = cap.intersects(minLatitude, minLatitude + height, minLongitude, minLongitude + width);
+            for (int row = 0; row <= 40; row++) {
+                for (int column = 0; column <= 40; column++) {
+                    double pointLatitude = minLatitude + height * row / 40;
+                    double pointLongitude = minLongitude + width * column / 40;
+                    double d = distance(latitude, longitude, pointLatitude, pointLongitude);
+                    if (contained)
+                        assertTrue(d <= radius * (1 + tolerance), "rectangle inside but a point is " + d + " m away, radius " + radius);
+                    if (!intersects)
+                        assertTrue(d > radius * (1 - tolerance), "rectangle outside but a point is " + d + " m away, radius " + radius);
+                }
+            }
+        }
+    }
+
+    @Test
+    void searchesMatchBruteForce() {
+        Random random = new Random(2);
+        int n = 20_000;
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        Integer[] data = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            longitudes[i] = random.nextDouble() * 360 - 180;
+            data[i] = i;
+        }
+        SpatialPoints<Integer> tree = SpatialPoints.bulkLoad(latitudes, longitudes, data);
+        SpatialPoints<Integer> linear = SpatialPoints.linear(latitudes, longitudes, data);
+        double[][] caps = {
+                {0, 0, Math.toRadians(160) * GeodesicRegion.earthRadius},
+                {0, 0, Math.toRadians(176) * GeodesicRegion.earthRadius},
+                {-60, 170, 1.3 * quarter},
+                {10, 179.5, 500_000},
+                {-35, -179.9, 2_000_000},
+                {88, 180, 800_000},
+        };
+        for (int i = 0; i < caps.length + 30; i++) {
+            double[] cap = i < caps.length ? caps[i]
+                    : new double[]{random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, quarter + random.nextDouble() * quarter};
+            Set<Integer> expected = new HashSet<>();
+            Set<Integer> border = new HashSet<>();
+            for (int j = 0; j < n; j++) {
+                double d = distance(cap[0], cap[1], latitudes[j], longitudes[j]);
+                if (d <= cap[2] * (1 - tolerance))
+                    expected.add(j);
+                else if (d <= cap[2] * (1 + tolerance))
+                    border.add(j);
+            }
+            for (SpatialPoints<Integer> spatialPoints : new SpatialPoints[]{tree, linear}) {
+                Set<Integer> found = new HashSet<>();
+                spatialPoints.rangeSearch(cap[0], cap[1], cap[2], SpatialPoints.searchType.GEODESIC, (latitude, longitude, id) -> found.add(id));
+                found.removeAll(border);
+                assertEquals(expected, found, "cap at " + cap[0] + ", " + cap[1] + " with radius " + cap[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package quad;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstrumentationTest {
+    private static final int points = 50_000;
+
+    // Exact searches visit the same nodes whether or not they are split across a pool, so the two
+    // must report the same work.
+    @Test
+    void parallelSearchesCountLikeSequentialOnes() {
+        Random random = new Random(1);
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        Integer[] data = new Integer[points];
+        for (int i = 0; i < points; i++) {
+            latitudes[i] = random.nextDouble() * 100;
+            longitudes[i] = random.nextDouble() * 100;
+            data[i] = i;
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SpatialPoints<Integer> spatialPoints = SpatialPoints.bulkLoad(latitudes, longitudes, data, pool, 1_000);
+            List<QueryStats> recorded = new ArrayList<>();
+            spatialPoints.enableInstrumentation().addListener(recorded::add);
+            SpatialPoints.searchType[] searchTypes = {SpatialPoints.searchType.CIRCLE, SpatialPoints.searchType.STRICT_BOX, SpatialPoints.searchType.GEODESIC};
+            for (int i = 0; i < 50; i++) {
+                double latitude = random.nextDouble() * 100;
+                double longitude = random.nextDouble() * 100;
+                double range = random.nextDouble() * 30;
+                for (SpatialPoints.searchType searchType : searchTypes) {
+                    double searchRange = searchType == SpatialPoints.searchType.GEODESIC ? range * 100_000 : range;
+                    spatialPoints.setParallelism(pool, 1_000);
+                    spatialPoints.rangeSearch(latitude, longitude, searchRange, searchType);
+                    spatialPoints.setParallelism(null, 1_000);
+                    spatialPoints.rangeSearch(latitude, longitude, searchRange, searchType);
+
+                    QueryStats parallel = recorded.get(recorded.size() - 2);
+                    QueryStats sequential = recorded.get(recorded.size() - 1);
+                    assertTrue(parallel.getNodesVisited() > 0);
+                    assertEquals(sequential.getNodesVisited(), parallel.getNodesVisited(), searchType + " nodes visited");
+                    assertEquals(sequential.getRejected(), parallel.getRejected(), searchType + " rejected");
+                    assertEquals(sequential.getReturned(), parallel.getReturned(), searchType + " returned");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package quad;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Recovers indexes from logs left behind in the states a crash can leave them in, and checks that
+// exactly the committed mutations come back.
+class MutationLogTest {
+    private static final int points = 500;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tornLastRecordIsDropped() throws IOException {
+        Map<String, double[]> expected = insert(points, new Random(1));
+        Path segment = lastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        expected.remove(id(points - 1));
+        long torn = Files.size(segment);
+
+        assertRecovers(expected);
+        assertTrue(Files.size(segment) < torn, "torn record was not truncated away");
+        // The truncated segment is no longer the last one, so it must now read back cleanly.
+        assertRecovers(expected);
+    }
+
+    @Test
+    void corruptLastRecordIsDropped() throws IOException {
+        Map<String, double[]> expected = insert(points, new Random(2));
+        flipLastByte(lastSegment());
+        expected.remove(id(points - 1));
+
+        assertRecovers(expected);
+        try (MutationLog<String> log = open()) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            spatialPoints.insert(1, 2, "after");
+        }
+        expected.put("after", new double[]{1, 2});
+        assertRecovers(expected);
+    }
+
+    @Test
+    void corruptEarlierSegmentIsAnError() throws IOException {
+        insert(points, new Random(3));
+        Path segment = lastSegment();
+        try (MutationLog<String> log = open()) {
+            SpatialPoints.recover(log).insert(1, 2, "after");
+        }
+        flipLastByte(segment);
+
+        try (MutationLog<String> log = open()) {
+            assertThrows(IOException.class, () -> SpatialPoints.recover(log));
+        }
+    }
+
+    @Test
+    void replaysSegmentsWrittenAfterCompaction() throws IOException {
+        Random random = new Random(4);
+        Map<String, double[]> expected = new HashMap<>();
+        try (MutationLog<String> log = open()) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            mutate(spatialPoints, expected, 0, random);
+            join(spatialPoints.compact());
+            mutate(spatialPoints, expected, 1, random);
+        }
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(Collections.singletonList(directory.resolve("log-1")), files("log-"));
+        assertRecovers(expected);
+    }
+
+    @Test
+    void compactsAutomaticallyWhileWriting() throws IOException {
+        Random random = new Random(5);
+        Map<String, double[]> expected = new HashMap<>();
+        try (MutationLog<String> log = MutationLog.open(directory, MutationLogTest::encode, MutationLogTest::decode, 0, 4096)) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            for (int round = 0; round < 10; round++)
+                mutate(spatialPoints, expected, round, random);
+        }
+        assertFalse(files("snapshot-").isEmpty(), "no compaction ran");
+        assertRecovers(expected);
+    }
+
+    @Test
+    void crashBeforeOldSegmentsAreDeletedReplaysOnlyTheNewOnes() throws IOException {
+        Random random = new Random(6);
+        Map<String, double[]> expected = new HashMap<>();
+        try (MutationLog<String> log = open()) {
+            mutate(SpatialPoints.recover(log), expected, 0, random);
+        }
+        // Keep the segments compaction is about to delete, and put them back once it has, as if it
+        // had crashed after writing the snapshot.
+        Map<Path, byte[]> covered = new HashMap<>();
+        for (Path segment : files("log-"))
+            covered.put(segment, Files.readAllBytes(segment));
+        try (MutationLog<String> log = open()) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            join(spatialPoints.compact());
+            mutate(spatialPoints, expected, 1, random);
+        }
+        for (Map.Entry<Path, byte[]> segment : covered.entrySet()) {
+            assertFalse(Files.exists(segment.getKey()));
+            Files.write(segment.getKey(), segment.getValue());
+        }
+
+        assertRecovers(expected);
+    }
+
+    private MutationLog<String> open() throws IOException {
+        return MutationLog.open(directory, MutationLogTest::encode, MutationLogTest::decode, 0, Long.MAX_VALUE);
+    }
+
+    private static byte[] encode(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static String id(int id) {
+        return "point-" + id;
+    }
+
+    private Map<String, double[]> insert(int count, Random random) throws IOException {
+        Map<String, double[]> expected = new HashMap<>();
+        try (MutationLog<String> log = open()) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            for (int id = 0; id < count; id++) {
+                double[] position = {random.nextDouble() * 100, random.nextDouble() * 100};
+                spatialPoints.insert(position[0], position[1], id(id));
+                expected.put(id(id), position);
+            }
+        }
+        return expected;
+    }
+
+    // Inserts a round of points, then moves some of this round's and removes others.
+    private static void mutate(SpatialPoints<String> spatialPoints, Map<String, double[]> expected, int round, Random random) {
+        List<String> inserted = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            String id = round + "-" + i;
+            double[] position = {random.nextDouble() * 100, random.nextDouble() * 100};
+            spatialPoints.insert(position[0], position[1], id);
+            expected.put(id, position);
+            inserted.add(id);
+        }
+        for (int i = 0; i < inserted.size(); i += 3) {
+            String id = inserted.get(i);
+            double[] position = expected.get(id);
+            QuadNode<String> node = new QuadNode<>(position[0], position[1], id);
+            if (i % 2 == 0) {
+                assertTrue(spatialPoints.remove(node));
+                expected.remove(id);
+            } else {
+                double[] moved = {random.nextDouble() * 100, random.nextDouble() * 100};
+                spatialPoints.move(node, moved[0], moved[1]);
+                expected.put(id, moved);
+            }
+        }
+    }
+
+    private void assertRecovers(Map<String, double[]> expected) throws IOException {
+        try (MutationLog<String> log = open()) {
+            SpatialPoints<String> spatialPoints = SpatialPoints.recover(log);
+            Map<String, double[]> recovered = new HashMap<>();
+            spatialPoints.forEach((latitude, longitude, id) ->
+                    assertNull(recovered.put(id, new double[]{latitude, longitude}), "point " + id + " recovered twice"));
+            assertEquals(expected.keySet(), recovered.keySet());
+            for (Map.Entry<String, double[]> point : expected.entrySet()) {
+                assertEquals(point.getValue()[0], recovered.get(point.getKey())[0], point.getKey());
+                assertEquals(point.getValue()[1], recovered.get(point.getKey())[1], point.getKey());
+            }
+            assertEquals(expected.size(), spatialPoints.getSize());
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> segments = files("log-");
+        return segments.get(segments.size() - 1);
+    }
+
+    // Sorted by number rather than by name, so log-10 comes after log-9.
+    private List<Path> files(String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().substring(prefix.length()).matches("\\d+"))
+                    files.add(file);
+            }
+        }
+        files.sort((a, b) -> Long.compare(number(a, prefix), number(b, prefix)));
+        return files;
+    }
+
+    private static long number(Path file, String prefix) {
+        return Long.parseLong(file.getFileName().toString().substring(prefix.length()));
+    }
+
+    private static void flipLastByte(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+    }
+
+    private static void join(Future<?> future) {
+        try {
+            future.get();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
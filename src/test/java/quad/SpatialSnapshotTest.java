@@ -0,0 +1,97 @@
+package quad;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Writes an index to a snapshot, maps it back and checks that every query answers exactly as the
+// index it was written from.
+class SpatialSnapshotTest {
+    private static final int points = 20_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void insertedTreeRoundTrips() throws IOException {
+        Random random = new Random(1);
+        SpatialPoints<String> spatialPoints = new SpatialPoints<>();
+        for (int id = 0; id < points; id++) {
+            // A few points beyond the default bounds grow the root, and the clusters force deep leaves.
+            double spread = id % 100 == 0 ? 400 : id % 3 == 0 ? 0.01 : 100;
+            spatialPoints.insert(random.nextDouble() * spread - (spread - 100) / 2, random.nextDouble() * spread - (spread - 100) / 2, label(id));
+        }
+        check(spatialPoints, random);
+    }
+
+    @Test
+    void linearIndexRoundTrips() throws IOException {
+        Random random = new Random(2);
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        String[] data = new String[points];
+        for (int id = 0; id < points; id++) {
+            latitudes[id] = random.nextDouble() * 100;
+            longitudes[id] = random.nextDouble() * 100;
+            data[id] = label(id);
+        }
+        check(SpatialPoints.linear(latitudes, longitudes, data), random);
+    }
+
+    // Payloads of varying length, so that offsets into the payload section are exercised too.
+    private static String label(int id) {
+        StringBuilder label = new StringBuilder("point-").append(id);
+        for (int i = 0; i < id % 7; i++)
+            label.append('.');
+        return label.toString();
+    }
+
+    private void check(SpatialPoints<String> spatialPoints, Random random) throws IOException {
+        Path path = directory.resolve("points.snapshot");
+        spatialPoints.writeSnapshot(path, data -> data.getBytes(StandardCharsets.UTF_8));
+        SpatialSnapshot<String> snapshot = SpatialSnapshot.open(path, SpatialSnapshotTest::decode);
+        assertEquals(spatialPoints.getSize(), snapshot.getSize());
+
+        Set<QuadNode<String>> all = new HashSet<>();
+        spatialPoints.forEach((latitude, longitude, data) -> all.add(new QuadNode<>(latitude, longitude, data)));
+        Set<QuadNode<String>> mapped = new HashSet<>();
+        snapshot.forEach((latitude, longitude, data) -> mapped.add(new QuadNode<>(latitude, longitude, data)));
+        assertEquals(all, mapped);
+
+        for (int i = 0; i < 200; i++) {
+            double latitude = random.nextDouble() * 120 - 10;
+            double longitude = random.nextDouble() * 120 - 10;
+            double range = random.nextDouble() * (i % 2 == 0 ? 2 : 40);
+            for (SpatialPoints.searchType searchType : SpatialPoints.searchType.values()) {
+                double searchRange = searchType == SpatialPoints.searchType.GEODESIC ? range * 100_000 : range;
+                assertEquals(spatialPoints.rangeSearch(latitude, longitude, searchRange, searchType),
+                        snapshot.rangeSearch(latitude, longitude, searchRange, searchType),
+                        searchType + " search at " + latitude + ", " + longitude + " with range " + searchRange);
+            }
+
+            Region triangle = Region.polygon(new double[]{latitude, latitude + range, latitude - range}, new double[]{longitude - range, longitude, longitude + range});
+            Set<QuadNode<String>> found = new HashSet<>();
+            snapshot.rangeSearch(triangle, (nodeLatitude, nodeLongitude, data) -> found.add(new QuadNode<>(nodeLatitude, nodeLongitude, data)));
+            assertEquals(spatialPoints.rangeSearch(triangle), found);
+
+            int k = 1 + random.nextInt(50);
+            assertEquals(spatialPoints.nearest(latitude, longitude, k), snapshot.nearest(latitude, longitude, k),
+                    k + " nearest to " + latitude + ", " + longitude);
+            assertEquals(spatialPoints.nearest(latitude, longitude, k, range), snapshot.nearest(latitude, longitude, k, range),
+                    k + " nearest within " + range + " of " + latitude + ", " + longitude);
+        }
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}